@@ -7,12 +7,21 @@ public class AmmoType {
     private final double explosiveWeight; // вес ВВ в кг
     private final double fragmentationRadius; // радиус разлета осколков в метрах
     private final int fragmentCount; // количество осколков
+    private volatile DragCurve dragCurve; // зависимость Cd от числа Маха
 
     public AmmoType(String name, double weight, double dragCoefficient, 
                    double explosiveWeight, double fragmentationRadius, int fragmentCount) {
+        this(name, weight, dragCoefficient,
+            DragCurve.constant(dragCoefficient * DragCurve.LEGACY_CORRECTION),
+            explosiveWeight, fragmentationRadius, fragmentCount);
+    }
+
+    public AmmoType(String name, double weight, double dragCoefficient, DragCurve dragCurve,
+                   double explosiveWeight, double fragmentationRadius, int fragmentCount) {
         this.name = name;
         this.weight = weight;
         this.dragCoefficient = dragCoefficient;
+        this.dragCurve = dragCurve;
         this.explosiveWeight = explosiveWeight;
         this.fragmentationRadius = fragmentationRadius;
         this.fragmentCount = fragmentCount;
@@ -62,10 +71,36 @@ public class AmmoType {
     public String getName() { return name; }
     public double getWeight() { return weight; }
     public double getDragCoefficient() { return dragCoefficient; }
+    public DragCurve getDragCurve() { return dragCurve; }
     public double getExplosiveWeight() { return explosiveWeight; }
     public double getFragmentationRadius() { return fragmentationRadius; }
     public int getFragmentCount() { return fragmentCount; }
 
+    /**
+     * Заменяет кривую сопротивления (загрузка из assets)
+     */
+    void setDragCurve(DragCurve dragCurve) {
+        this.dragCurve = dragCurve;
+    }
+
+    /**
+     * Ищет предопределенный боеприпас по имени
+     * @return null, если такого боеприпаса нет
+     */
+    static AmmoType findPredefined(String name) {
+        for (AmmoType ammo : PREDEFINED_AMMO_82MM) {
+            if (ammo.name.equals(name)) {
+                return ammo;
+            }
+        }
+        for (AmmoType ammo : PREDEFINED_AMMO_120MM) {
+            if (ammo.name.equals(name)) {
+                return ammo;
+            }
+        }
+        return null;
+    }
+
     /**
      * Рассчитывает поправку к углу возвышения в зависимости от типа боеприпаса
      * @param baseAngle базовый угол возвышения в градусах
@@ -74,15 +109,19 @@ public class AmmoType {
     public double getAngleCorrection(double baseAngle) {
         // Для осколочно-фугасных (ОФ) добавляем поправку в 0.7 градуса
         if (name.contains("ОФ-")) {
-            android.util.Log.d("AmmoType", String.format(
-                "Applying angle correction for %s: %.1f° -> %.1f° (+0.7°)",
-                name, baseAngle, baseAngle + 0.7));
+            if (BallisticLog.DEBUG) {
+                BallisticLog.debug("AmmoType",
+                    "Applying angle correction for %s: %.1f° -> %.1f° (+0.7°)",
+                    name, baseAngle, baseAngle + 0.7);
+            }
             return baseAngle + 0.7;
         }
         // Для осколочных (О) оставляем угол без изменений
-        android.util.Log.d("AmmoType", String.format(
-            "No angle correction for %s: %.1f°", 
-            name, baseAngle));
+        if (BallisticLog.DEBUG) {
+            BallisticLog.debug("AmmoType",
+                "No angle correction for %s: %.1f°", 
+                name, baseAngle);
+        }
         return baseAngle;
     }
 
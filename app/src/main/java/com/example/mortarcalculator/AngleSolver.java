@@ -0,0 +1,241 @@
+package com.example.mortarcalculator;
+
+/**
+ * Поиск угла возвышения по промаху методом Брента.
+ * Промах f(угол) = дальность падения - дистанция до цели. Навесная и
+ * настильная ветви разделяются углом, на котором f(угол) >= 0, после чего
+ * корень ищется отдельно в каждой скобке.
+ *
+ * Если цель выше миномета, на малых углах снаряд не поднимается до ее
+ * уровня и промах не определен. Высота вершины растет с углом, поэтому
+ * такие углы лежат у нижнего края диапазона: край скобки сдвигается на
+ * наименьший угол, с которого уровень цели достигается, и f на скобке
+ * непрерывна. Недолет на всю дистанцию вместо этого дал бы скачок f,
+ * на котором метод Брента сходился бы к ложному корню.
+ */
+final class AngleSolver {
+    private static final double GOLDEN = 0.5 * (Math.sqrt(5.0) - 1.0);
+    private static final double SPLIT_TOLERANCE = 0.5; // точность поиска угла максимальной дальности, градусы
+    private static final double ANGLE_TOLERANCE = 1e-6; // минимальная ширина скобки, градусы
+    private static final double REACH_TOLERANCE = 1e-3; // точность угла, с которого достигается уровень цели, градусы
+
+    private AngleSolver() {}
+
+    /**
+     * Результат решения для одной ветви
+     */
+    static final class Solution {
+        double angle; // угол возвышения в градусах
+        double miss; // промах по дальности в метрах
+        int iterations; // количество итераций метода Брента
+        boolean converged; // найден ли угол с заданной точностью
+    }
+
+    /**
+     * Угол, разделяющий навесную и настильную ветви
+     */
+    static final class Split {
+        double angle; // угол, на котором снаряд долетает до цели
+        int evaluations; // количество интегрирований траектории
+        boolean reachable; // достижима ли цель вообще
+    }
+
+    /**
+     * Ищет угол, на котором дальность не меньше дистанции до цели. Начинает
+     * с золотого сечения диапазона и останавливается, как только такой угол найден;
+     * если цель у границы досягаемости, сходится к углу максимальной дальности.
+     */
+    static void split(TrajectoryIntegrator.Projectile projectile, BallisticCalculator.WeatherConditions weather,
+                      double distance, double heightDiff, Split out) {
+        TrajectoryIntegrator.Workspace workspace = TrajectoryIntegrator.workspace();
+        double a = projectile.minElevation;
+        double b = projectile.maxElevation;
+        double c = b - GOLDEN * (b - a);
+        double d = a + GOLDEN * (b - a);
+        double fc = shortfall(projectile, weather, distance, heightDiff, c, workspace);
+        out.evaluations = 1;
+        if (fc >= 0) {
+            out.angle = c;
+            out.reachable = true;
+            return;
+        }
+        double fd = shortfall(projectile, weather, distance, heightDiff, d, workspace);
+        out.evaluations++;
+        while (fd < 0 && b - a > SPLIT_TOLERANCE) {
+            if (fc > fd) {
+                // Максимум дальности левее d
+                b = d;
+                d = c;
+                fd = fc;
+                c = b - GOLDEN * (b - a);
+                fc = shortfall(projectile, weather, distance, heightDiff, c, workspace);
+                out.evaluations++;
+                if (fc >= 0) {
+                    out.angle = c;
+                    out.reachable = true;
+                    return;
+                }
+            } else {
+                a = c;
+                c = d;
+                fc = fd;
+                d = a + GOLDEN * (b - a);
+                fd = shortfall(projectile, weather, distance, heightDiff, d, workspace);
+                out.evaluations++;
+            }
+        }
+        out.angle = d;
+        out.reachable = fd >= 0;
+    }
+
+    /**
+     * Ищет корень промаха методом Брента в скобке [lower, upper]
+     * @param tolerance допустимый промах в метрах
+     * @param maxIterations максимальное количество итераций
+     * @return false, если на концах скобки промах одного знака или уровень
+     * цели не достигается ни на одном угле скобки
+     */
+    static boolean solve(TrajectoryIntegrator.Projectile projectile, BallisticCalculator.WeatherConditions weather,
+                         double distance, double heightDiff, double lower, double upper,
+                         double tolerance, int maxIterations, Solution out) {
+        TrajectoryIntegrator.Workspace workspace = TrajectoryIntegrator.workspace();
+        double a = lower;
+        double b = upper;
+        double fa = miss(projectile, weather, distance, heightDiff, a, workspace);
+        double fb = miss(projectile, weather, distance, heightDiff, b, workspace);
+        out.iterations = 0;
+        out.converged = false;
+
+        // Сужаем скобку до углов, на которых снаряд поднимается до уровня цели
+        if (Double.isNaN(fa) && !Double.isNaN(fb)) {
+            a = reachEdge(projectile, weather, distance, heightDiff, a, b, workspace);
+            fa = miss(projectile, weather, distance, heightDiff, a, workspace);
+        } else if (Double.isNaN(fb) && !Double.isNaN(fa)) {
+            b = reachEdge(projectile, weather, distance, heightDiff, b, a, workspace);
+            fb = miss(projectile, weather, distance, heightDiff, b, workspace);
+        }
+        if (Double.isNaN(fa) || Double.isNaN(fb)) {
+            out.angle = b;
+            out.miss = Double.POSITIVE_INFINITY;
+            return false;
+        }
+
+        if (fa * fb > 0) {
+            out.angle = Math.abs(fa) < Math.abs(fb) ? a : b;
+            out.miss = Math.min(Math.abs(fa), Math.abs(fb));
+            return false;
+        }
+
+        double c = a, fc = fa;
+        double d = b - a, e = d;
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            out.iterations = iteration;
+            if (fb * fc > 0) {
+                // Корень между a и b: c становится противоположным концом скобки
+                c = a;
+                fc = fa;
+                d = b - a;
+                e = d;
+            }
+            if (Math.abs(fc) < Math.abs(fb)) {
+                a = b;
+                b = c;
+                c = a;
+                fa = fb;
+                fb = fc;
+                fc = fa;
+            }
+
+            double half = 0.5 * (c - b);
+            if (Math.abs(fb) <= tolerance || Math.abs(half) <= ANGLE_TOLERANCE) {
+                out.converged = Math.abs(fb) <= tolerance;
+                break;
+            }
+
+            if (Math.abs(e) >= ANGLE_TOLERANCE && Math.abs(fa) > Math.abs(fb)) {
+                // Обратная квадратичная интерполяция или метод секущих
+                double s = fb / fa;
+                double p, q;
+                if (a == c) {
+                    p = 2.0 * half * s;
+                    q = 1.0 - s;
+                } else {
+                    double r = fb / fc;
+                    double t = fa / fc;
+                    p = s * (2.0 * half * t * (t - r) - (b - a) * (r - 1.0));
+                    q = (t - 1.0) * (r - 1.0) * (s - 1.0);
+                }
+                if (p > 0) {
+                    q = -q;
+                } else {
+                    p = -p;
+                }
+                if (2.0 * p < Math.min(3.0 * half * q - Math.abs(ANGLE_TOLERANCE * q), Math.abs(e * q))) {
+                    e = d;
+                    d = p / q;
+                } else {
+                    d = half;
+                    e = d;
+                }
+            } else {
+                // Деление пополам
+                d = half;
+                e = d;
+            }
+
+            a = b;
+            fa = fb;
+            b += Math.abs(d) > ANGLE_TOLERANCE ? d : Math.copySign(ANGLE_TOLERANCE, half);
+            fb = miss(projectile, weather, distance, heightDiff, b, workspace);
+        }
+
+        out.angle = b;
+        out.miss = fb;
+        return true;
+    }
+
+    /**
+     * Ближайший к unreached угол, с которого снаряд достигает уровня цели, с
+     * точностью {@link #REACH_TOLERANCE}; ищется делением пополам
+     * @param unreached угол, на котором уровень не достигается
+     * @param reached угол, на котором уровень достигается
+     */
+    private static double reachEdge(TrajectoryIntegrator.Projectile projectile,
+                                    BallisticCalculator.WeatherConditions weather,
+                                    double distance, double heightDiff, double unreached, double reached,
+                                    TrajectoryIntegrator.Workspace workspace) {
+        while (Math.abs(reached - unreached) > REACH_TOLERANCE) {
+            double middle = 0.5 * (unreached + reached);
+            if (Double.isNaN(miss(projectile, weather, distance, heightDiff, middle, workspace))) {
+                unreached = middle;
+            } else {
+                reached = middle;
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Промах для поиска угла разделения ветвей: недостижение уровня цели
+     * считается недолетом на всю дистанцию
+     */
+    private static double shortfall(TrajectoryIntegrator.Projectile projectile,
+                                    BallisticCalculator.WeatherConditions weather,
+                                    double distance, double heightDiff, double angle,
+                                    TrajectoryIntegrator.Workspace workspace) {
+        double miss = miss(projectile, weather, distance, heightDiff, angle, workspace);
+        return Double.isNaN(miss) ? -distance : miss;
+    }
+
+    /**
+     * Промах по дальности для угла
+     * @return NaN, если снаряд не достигает уровня цели
+     */
+    private static double miss(TrajectoryIntegrator.Projectile projectile, BallisticCalculator.WeatherConditions weather,
+                               double distance, double heightDiff, double angle,
+                               TrajectoryIntegrator.Workspace workspace) {
+        TrajectoryIntegrator.integrate(BallisticCalculator.getIntegratorMode(), projectile, weather,
+            angle, distance, heightDiff, workspace);
+        return workspace.hit ? workspace.impactX - distance : Double.NaN;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.mortarcalculator;
+
+/**
+ * Профиль плотности воздуха по высоте для одних метеоусловий.
+ * Плотность зависит только от высоты и приземных условий, поэтому она
+ * вычисляется один раз в узлах сетки с шагом {@link #HEIGHT_STEP}, а на шаге
+ * интегрирования берется линейной интерполяцией без Math.exp.
+ * Вне сетки плотность считается напрямую.
+ * Здесь же хранится скорость звука для пересчета скорости в число Маха.
+ */
+final class AtmosphereProfile {
+    static final double HEIGHT_MIN = -1000.0; // нижняя граница профиля относительно миномета, м
+    static final double HEIGHT_MAX = 6000.0; // верхняя граница профиля, м
+    static final double HEIGHT_STEP = 10.0; // шаг сетки по высоте, м
+
+    private static final int NODE_COUNT = (int) Math.round((HEIGHT_MAX - HEIGHT_MIN) / HEIGHT_STEP) + 1;
+    private static final double INV_STEP = 1.0 / HEIGHT_STEP;
+    private static final double ADIABATIC_INDEX = 1.4; // показатель адиабаты воздуха
+    private static final double GAS_CONSTANT = 287.05; // Дж/(кг·К)
+
+    // 1 / скорость звука по приземной температуре: число Маха = скорость * inverseSoundSpeed.
+    // Изменение скорости звука с высотой на траекториях миномета не превышает 2-3%.
+    final double inverseSoundSpeed;
+
+    private final BallisticCalculator.WeatherConditions weather;
+    private final double[] density = new double[NODE_COUNT];
+
+    AtmosphereProfile(BallisticCalculator.WeatherConditions weather) {
+        this.weather = weather;
+        double temperatureKelvin = Math.max(200.0, weather.temperature + 273.15);
+        this.inverseSoundSpeed = 1.0 / Math.sqrt(ADIABATIC_INDEX * GAS_CONSTANT * temperatureKelvin);
+        for (int i = 0; i < NODE_COUNT; i++) {
+            density[i] = BallisticCalculator.calculateAirDensity(HEIGHT_MIN + i * HEIGHT_STEP, weather);
+        }
+    }
+
+    /**
+     * Плотность воздуха на высоте в кг/м³
+     * @param height высота относительно миномета в метрах
+     */
+    double density(double height) {
+        double position = (height - HEIGHT_MIN) * INV_STEP;
+        if (!(position >= 0.0) || position >= NODE_COUNT - 1) {
+            return BallisticCalculator.calculateAirDensity(height, weather);
+        }
+        int index = (int) position;
+        double fraction = position - index;
+        return density[index] + (density[index + 1] - density[index]) * fraction;
+    }
+}
@@ -1,18 +1,52 @@
 package com.example.mortarcalculator;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 public class BallisticCalculator {
+    // Версия физической модели: увеличивать при любом изменении расчета траектории,
+    // чтобы сохраненные таблицы стрельбы были перестроены
+    static final int MODEL_VERSION = 1;
+
     private static final double GRAVITY = 9.81; // м/с²
     private static final double AIR_DENSITY_SEA_LEVEL = 1.225; // кг/м³ при нормальных условиях
-    private static final double TIME_STEP = 0.2; // увеличиваем шаг времени до 0.2 секунд
     private static final double TEMPERATURE_GRADIENT = -0.0065; // градиент температуры в К/м
     private static final double SEA_LEVEL_TEMPERATURE = 288.15; // температура на уровне моря в Кельвинах
     private static final double GAS_CONSTANT = 287.05; // газовая постоянная для воздуха в Дж/(кг·К)
-    private static final double MAX_TIME = 150.0; // уменьшаем максимальное время полета
     private static final double HIT_ACCURACY = 50.0; // увеличиваем допустимую погрешность
-    private static final int MAX_TRAJECTORY_POINTS = 200; // уменьшаем максимальное количество точек
+    private static final double SOLVER_TOLERANCE = 1.0; // точность поиска угла по промаху в метрах
+    private static final int SOLVER_MAX_ITERATIONS = 30; // ограничение итераций метода Брента
+    private static final int WEATHER_CORRECTIONS = 2; // поправки табличного угла на метеоусловия
+    private static final double TABLE_TOLERANCE = 1.0; // допустимый промах после поправок в метрах
+    private static final double MAX_TABLE_CORRECTION = 3.0; // ограничение одной поправки в градусах
+
+    /**
+     * Метод численного интегрирования траектории
+     */
+    public enum IntegratorMode {
+        EULER, // явный метод Эйлера с фиксированным шагом 0.2 с
+        DORMAND_PRINCE // адаптивный метод Дормана–Принса 5(4) с поиском точки падения
+    }
+
+    private static volatile IntegratorMode integratorMode = IntegratorMode.DORMAND_PRINCE;
+
+    public static IntegratorMode getIntegratorMode() {
+        return integratorMode;
+    }
+
+    public static void setIntegratorMode(IntegratorMode mode) {
+        integratorMode = mode;
+    }
+
+    // Проверять ли итоговую траекторию на пересечение с рельефом
+    private static volatile boolean terrainAware = true;
+
+    public static boolean isTerrainAware() {
+        return terrainAware;
+    }
+
+    public static void setTerrainAware(boolean enabled) {
+        terrainAware = enabled;
+    }
 
     public static class WeatherConditions {
         public final double temperature; // температура в градусах Цельсия
@@ -21,6 +55,9 @@ public class BallisticCalculator {
         public final double windSpeed; // скорость ветра в м/s
         public final double windDirection; // направление ветра в градусах
 
+        // Профиль плотности строится один раз и переиспользуется всеми расчетами
+        private volatile AtmosphereProfile atmosphere;
+
         public WeatherConditions(double temperature, double pressure, double humidity, 
                                double windSpeed, double windDirection) {
             this.temperature = temperature;
@@ -29,6 +66,27 @@ public class BallisticCalculator {
             this.windSpeed = windSpeed;
             this.windDirection = windDirection % 360.0; // нормализуем только угол от 0° до 360°
         }
+
+        /**
+         * Профиль плотности воздуха для этих условий; строится при первом обращении
+         */
+        AtmosphereProfile atmosphere() {
+            AtmosphereProfile profile = atmosphere;
+            if (profile == null) {
+                // Гонка безопасна: профили для одних условий одинаковы
+                profile = new AtmosphereProfile(this);
+                atmosphere = profile;
+            }
+            return profile;
+        }
+    }
+
+    /**
+     * Заранее строит профиль плотности воздуха, чтобы первый расчет после
+     * смены метеоусловий не тратил на это время
+     */
+    public static void prepareWeather(WeatherConditions weather) {
+        weather.atmosphere();
     }
 
     public static class BallisticResult {
@@ -44,18 +102,31 @@ public class BallisticCalculator {
         public final double impactError; // погрешность попадания в метрах
         public final double impactX; // координата X точки падения
         public final double impactY; // координата Y точки падения
+        public final int iterations; // итерации поиска угла
+        public final boolean terrainHit; // траектория задевает рельеф раньше цели
+        public final double minClearance; // наименьший запас над рельефом в метрах, NaN без профиля
 
         public BallisticResult(double angle, double timeOfFlight, double maxHeight, 
                              boolean isValid, double[] trajectoryX, double[] trajectoryY, 
                              double[] trajectoryZ, double impactEllipseMajor, double impactEllipseMinor) {
             this(angle, timeOfFlight, maxHeight, isValid, trajectoryX, trajectoryY, trajectoryZ, 
-                impactEllipseMajor, impactEllipseMinor, Double.MAX_VALUE, 0, 0);
+                impactEllipseMajor, impactEllipseMinor, Double.MAX_VALUE, 0, 0, 0);
         }
         
         public BallisticResult(double angle, double timeOfFlight, double maxHeight, 
                              boolean isValid, double[] trajectoryX, double[] trajectoryY, 
                              double[] trajectoryZ, double impactEllipseMajor, double impactEllipseMinor,
-                             double impactError, double impactX, double impactY) {
+                             double impactError, double impactX, double impactY, int iterations) {
+            this(angle, timeOfFlight, maxHeight, isValid, trajectoryX, trajectoryY, trajectoryZ,
+                impactEllipseMajor, impactEllipseMinor, impactError, impactX, impactY, iterations,
+                false, Double.NaN);
+        }
+
+        public BallisticResult(double angle, double timeOfFlight, double maxHeight,
+                             boolean isValid, double[] trajectoryX, double[] trajectoryY,
+                             double[] trajectoryZ, double impactEllipseMajor, double impactEllipseMinor,
+                             double impactError, double impactX, double impactY, int iterations,
+                             boolean terrainHit, double minClearance) {
             this.angle = angle;
             this.timeOfFlight = timeOfFlight;
             this.maxHeight = maxHeight;
@@ -68,10 +139,13 @@ public class BallisticCalculator {
             this.impactError = impactError;
             this.impactX = impactX;
             this.impactY = impactY;
+            this.iterations = iterations;
+            this.terrainHit = terrainHit;
+            this.minClearance = minClearance;
         }
     }
 
-    private static double calculateAirDensity(double height, WeatherConditions weather) {
+    static double calculateAirDensity(double height, WeatherConditions weather) {
         // Упрощенный расчет плотности воздуха
         double temperatureKelvin = weather.temperature + 273.15;
         double temperatureAtHeight = Math.max(200.0, temperatureKelvin + TEMPERATURE_GRADIENT * height);
@@ -81,408 +155,289 @@ public class BallisticCalculator {
         // Упрощенный расчет плотности
         double density = pressureAtHeight / (GAS_CONSTANT * temperatureAtHeight);
         
-        // Добавляем подробное логирование плотности воздуха
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Air density calculation at height %.1fm:\n" +
-            "Temperature: %.1f°C (%.1fK at height)\n" +
-            "Pressure: %.1f hPa at height\n" +
-            "Resulting density: %.5f kg/m³",
-            height, weather.temperature, temperatureAtHeight, 
-            pressureAtHeight, density));
-            
-        return Math.max(0.1, density);
-    }
-
-    private static double calculateDragCoefficient(double velocity, double caliber) {
-        // Упрощенный расчет коэффициента сопротивления
-        velocity = Math.min(2000.0, velocity);
-        double machNumber = velocity / 340.0;
-        
-        double dragCoeff;
-        if (machNumber < 0.8) {
-            dragCoeff = 0.2 + 0.1 * machNumber * machNumber;
-        } else if (machNumber < 1.2) {
-            dragCoeff = 0.4 + 0.2 * (machNumber - 0.8) * (machNumber - 0.8);
-        } else {
-            dragCoeff = 0.15 + 0.05 / (machNumber * machNumber);
+        // Подробное логирование плотности воздуха вызывается на каждом шаге,
+        // поэтому включается только на уровне TRACE
+        if (BallisticLog.TRACE) {
+            BallisticLog.trace("BallisticCalculator",
+                "Air density calculation at height %.1fm:\n" +
+                "Temperature: %.1f°C (%.1fK at height)\n" +
+                "Pressure: %.1f hPa at height\n" +
+                "Resulting density: %.5f kg/m³",
+                height, weather.temperature, temperatureAtHeight,
+                pressureAtHeight, density);
         }
-        
-        return Math.min(1.0, dragCoeff * (1.0 + 0.1 * Math.log10(caliber)));
-    }
 
-    private static double findOptimalAngle(MortarType mortar, double targetDistance, 
-                                         double heightDiff, WeatherConditions weather,
-                                         double startAngle, double endAngle, 
-                                         double accuracy, int maxIterations) {
-        maxIterations = Math.min(3, maxIterations);
-        
-        if (targetDistance < mortar.getMinRange() || targetDistance > mortar.getMaxRange() * 1.2) {
-            return startAngle;
-        }
-        
-        // Убираем преждевременную корректировку угла, так как она будет применена позже
-        // startAngle = mortar.getAmmoType().getAngleCorrection(startAngle);
-        // endAngle = mortar.getAmmoType().getAngleCorrection(endAngle);
-        
-        double currentAngle = startAngle;
-        double step = Math.abs(endAngle - startAngle) / 2.0;
-        double bestAngle = currentAngle;
-        double minError = Double.MAX_VALUE;
-        
-        for (int iteration = 0; iteration < maxIterations; iteration++) {
-            BallisticResult result = calculateSingleTrajectory(mortar, targetDistance, 
-                                                             heightDiff, weather, currentAngle);
-            
-            if (result.isValid) {
-                double[] trajectoryX = result.trajectoryX;
-                double[] trajectoryY = result.trajectoryY;
-                
-                int groundIndex = -1;
-                int stepSize = Math.max(1, trajectoryY.length / 10);
-                for (int i = 1; i < trajectoryY.length; i += stepSize) {
-                    if (trajectoryY[i] <= heightDiff) {
-                        groundIndex = i;
-                        break;
-                    }
-                }
-                
-                if (groundIndex > 0) {
-                    double impactX = trajectoryX[groundIndex];
-                    double impactY = trajectoryY[groundIndex];
-                    double impactDistance = Math.sqrt(impactX * impactX + impactY * impactY);
-                    double error = Math.abs(impactDistance - targetDistance);
-                    
-                    if (error < minError) {
-                        minError = error;
-                        bestAngle = currentAngle;
-                    }
-                    
-                    if (error < accuracy * 3) {
-                        break;
-                    }
-                    
-                    if (impactDistance < targetDistance) {
-                        currentAngle += step * 2.5;
-                    } else {
-                        currentAngle -= step * 2.5;
-                    }
-                }
-            }
-            
-            step *= 0.3;
-            if (step < 2.0) break;
-        }
-        
-        return bestAngle;
+        return Math.max(0.1, density);
     }
 
-    private static double[] calculateOptimalAngles(MortarType mortar, double distance, 
-                                                 double heightDiff, WeatherConditions weather) {
-        double maxElevation = mortar.getMaxElevation();
-        double minElevation = mortar.getMinElevation();
-        
-        // Точность расчета в метрах
-        double accuracy = 1.0;
-        // Максимальное количество итераций
-        int maxIterations = 20;
-        
-        // Рассчитываем примерные углы на основе дистанции и разницы высот
-        double normalizedDistance = (distance - mortar.getMinRange()) / 
-                                  (mortar.getMaxRange() - mortar.getMinRange());
-        
-        // Корректируем углы с учетом разницы высот
-        double heightCorrection = Math.atan2(heightDiff, distance) * 180.0 / Math.PI;
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Height correction: %.1f° for height difference %.1f m at distance %.1f m",
-            heightCorrection, heightDiff, distance));
-        
-        // Начальные углы для поиска с учетом разницы высот
-        // Для высокой траектории
-        double highStartAngle = maxElevation * (1.0 - normalizedDistance * 0.3);
-        double highEndAngle = maxElevation * (0.7 - normalizedDistance * 0.3);
-        
-        // Для низкой траектории
-        double lowStartAngle = maxElevation * (0.7 - normalizedDistance * 0.3);
-        double lowEndAngle = minElevation * (1.0 + normalizedDistance * 0.2);
-        
-        // Применяем коррекцию высоты к обоим углам
-        highStartAngle += heightCorrection;
-        highEndAngle += heightCorrection;
-        lowStartAngle += heightCorrection;
-        lowEndAngle += heightCorrection;
-        
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Calculating angles for distance %.1f m (normalized: %.2f):\n" +
-            "Height difference: %.1f m\n" +
-            "Height correction: %.1f°\n" +
-            "High trajectory range: %.1f° - %.1f°\n" +
-            "Low trajectory range: %.1f° - %.1f°",
-            distance, normalizedDistance, heightDiff, heightCorrection,
-            highStartAngle, highEndAngle, lowStartAngle, lowEndAngle));
-        
-        // Ищем высокую траекторию
-        double highAngle = findOptimalAngle(mortar, distance, heightDiff, weather, 
-                                          highStartAngle, highEndAngle, accuracy, maxIterations);
-        
-        // Ищем низкую траекторию
-        double lowAngle = findOptimalAngle(mortar, distance, heightDiff, weather,
-                                         lowStartAngle, lowEndAngle, accuracy, maxIterations);
-        
-        // Применяем только ограничения по минимальному и максимальному углу
-        // Поправка типа боеприпаса будет применена позже в методе calculateTrajectory
-        // highAngle = mortar.getAmmoType().getAngleCorrection(highAngle);
-        // lowAngle = mortar.getAmmoType().getAngleCorrection(lowAngle);
-        
-        highAngle = Math.max(minElevation, Math.min(maxElevation, highAngle));
-        lowAngle = Math.max(minElevation, Math.min(maxElevation, lowAngle));
-        
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Final angles (before ammo correction):\n" +
-            "High angle: %.1f°\n" +
-            "Low angle: %.1f°\n" +
-            "Height difference: %.1f m",
-            highAngle, lowAngle, heightDiff));
-        
-        return new double[]{highAngle, lowAngle};
+    public static BallisticResult[] calculateTrajectory(MortarType mortar, double distance, 
+                                                      double heightDiff, WeatherConditions weather) {
+        return calculateTrajectory(mortar, mortar.getAmmoType(), distance, heightDiff, weather);
     }
 
-    public static BallisticResult[] calculateTrajectory(MortarType mortar, double distance, 
+    /**
+     * Расчет с явно заданным боеприпасом. Не читает изменяемый тип боеприпаса
+     * из общего объекта MortarType, поэтому безопасен при параллельных расчетах
+     * для нескольких минометов одного типа.
+     */
+    public static BallisticResult[] calculateTrajectory(MortarType mortar, AmmoType ammo, double distance,
                                                       double heightDiff, WeatherConditions weather) {
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Starting trajectory calculation:\n" +
-            "Distance: %.2f m\n" +
-            "Height difference: %.2f m\n" +
-            "Mortar: %s\n" +
-            "Ammo type: %s\n" +
-            "Weather: temp=%.1f°C, pressure=%.1f hPa, humidity=%.1f%%, wind=%.1f m/s @ %.1f°",
-            distance, heightDiff, mortar.getName(),
-            mortar.getAmmoType().getName(),
-            weather.temperature, weather.pressure, weather.humidity,
-            weather.windSpeed, weather.windDirection));
+        return calculateTrajectory(mortar, ammo, distance, heightDiff, weather, null);
+    }
+
+    /**
+     * Расчет с проверкой итоговых траекторий по профилю рельефа. Угол ищется
+     * для падения на уровень цели: рельеф может только прервать траекторию
+     * раньше, поэтому поиск ему не нужен, а проверка выполняется один раз
+     * на ветвь. Если траектория задевает рельеф дальше допустимого промаха
+     * от цели, ветвь недостижима, а точка встречи с рельефом сохраняется в результате.
+     * @param terrain профиль рельефа от миномета к цели или null
+     */
+    public static BallisticResult[] calculateTrajectory(MortarType mortar, AmmoType ammo, double distance,
+                                                      double heightDiff, WeatherConditions weather,
+                                                      TerrainProfile terrain) {
+        if (BallisticLog.DEBUG) {
+            BallisticLog.debug("BallisticCalculator",
+                "Starting trajectory calculation:\n" +
+                "Distance: %.2f m\n" +
+                "Height difference: %.2f m\n" +
+                "Mortar: %s\n" +
+                "Ammo type: %s\n" +
+                "Weather: temp=%.1f°C, pressure=%.1f hPa, humidity=%.1f%%, wind=%.1f m/s @ %.1f°",
+                distance, heightDiff, mortar.getName(),
+                ammo.getName(),
+                weather.temperature, weather.pressure, weather.humidity,
+                weather.windSpeed, weather.windDirection);
+        }
 
         // Проверяем базовые ограничения
         if (distance < mortar.getMinRange() || distance > mortar.getMaxRange() * 1.2) {
-            android.util.Log.d("BallisticCalculator", String.format(
-                "Target out of range: distance=%.2f m, minRange=%.2f m, maxRange=%.2f m",
-                distance, mortar.getMinRange(), mortar.getMaxRange()));
+            if (BallisticLog.DEBUG) {
+                BallisticLog.debug("BallisticCalculator",
+                    "Target out of range: distance=%.2f m, minRange=%.2f m, maxRange=%.2f m",
+                    distance, mortar.getMinRange(), mortar.getMaxRange());
+            }
             return new BallisticResult[]{
                 new BallisticResult(0, 0, 0, false, new double[0], new double[0], new double[0], 0, 0),
                 new BallisticResult(0, 0, 0, false, new double[0], new double[0], new double[0], 0, 0)
             };
         }
 
-        // Рассчитываем оптимальные углы для данной дистанции (геометрические)
-        double[] angles = calculateOptimalAngles(mortar, distance, heightDiff, weather);
-        double highAngle = angles[0];
-        double lowAngle = angles[1];
-
-        // Более подробно логируем процесс применения поправки
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Applying ammo correction for %s:\n" +
-            "Before correction - High angle: %.3f°, Low angle: %.3f°",
-            mortar.getAmmoType().getName(), highAngle, lowAngle));
-            
-        // Применяем корректировку угла в зависимости от типа боеприпаса
-        highAngle = mortar.getAmmoType().getAngleCorrection(highAngle);
-        lowAngle = mortar.getAmmoType().getAngleCorrection(lowAngle);
-        
-        android.util.Log.d("BallisticCalculator", String.format(
-            "After ammo correction - High angle: %.3f°, Low angle: %.3f°\n" +
-            "Difference: High +%.3f°, Low +%.3f°",
-            highAngle, lowAngle,
-            highAngle - angles[0], lowAngle - angles[1]));
-        
-        // НОВЫЙ КОД: Уточнение углов с учетом физических параметров и погодных условий
-        android.util.Log.d("BallisticCalculator", "Starting physical refinement of angles based on weather conditions");
-        
-        // Уточняем высокий угол с учетом всех физических параметров
-        double refinedHighAngle = refineAngleWithPhysics(
-            mortar, distance, heightDiff, weather, 
-            highAngle, // начальное значение из геометрического расчета
-            Math.min(45.0, mortar.getMinElevation()), // нижняя граница допустимого диапазона
-            mortar.getMaxElevation() // верхняя граница диапазона
-        );
-        
-        // Уточняем низкий угол с учетом всех физических параметров
-        double refinedLowAngle = refineAngleWithPhysics(
-            mortar, distance, heightDiff, weather, 
-            lowAngle, // начальное значение из геометрического расчета
-            mortar.getMinElevation(), // нижняя граница допустимого диапазона
-            Math.max(45.0, mortar.getMinElevation() + 5.0) // верхняя граница диапазона
-        );
-        
-        android.util.Log.d("BallisticCalculator", String.format(
-            "After physical refinement:\n" + 
-            "High angle: %.3f° -> %.3f° (delta: %.3f°)\n" +
-            "Low angle: %.3f° -> %.3f° (delta: %.3f°)",
-            highAngle, refinedHighAngle, refinedHighAngle - highAngle,
-            lowAngle, refinedLowAngle, refinedLowAngle - lowAngle
-        ));
-
-        // Используем уточненные углы для расчета траекторий
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Calculating final trajectories with refined angles: %.3f° and %.3f°",
-            refinedHighAngle, refinedLowAngle));
-        
+        // Постоянные снаряда вычисляем один раз на весь расчет
+        TrajectoryIntegrator.Projectile projectile =
+            new TrajectoryIntegrator.Projectile(mortar, ammo);
+
+        // Если таблица стрельбы готова, берем углы из нее и вносим поправки на метеоусловия
+        BallisticResult high = null;
+        BallisticResult low = null;
+        FiringTable table = FiringTable.get(mortar, ammo);
+        if (table != null && table.covers(distance, heightDiff)) {
+            high = solveFromTable(mortar, ammo, projectile, table, FiringTable.HIGH, distance, heightDiff, weather, terrain);
+            low = solveFromTable(mortar, ammo, projectile, table, FiringTable.LOW, distance, heightDiff, weather, terrain);
+            if (high != null && low != null) {
+                return new BallisticResult[]{high, low};
+            }
+        }
+
+        // Ищем углы методом Брента отдельно для навесной и настильной ветвей,
+        // которые не решены по таблице (край досягаемости, нестандартная атмосфера)
+        AngleSolver.Split split = new AngleSolver.Split();
+        AngleSolver.split(projectile, weather, distance, heightDiff, split);
+        if (BallisticLog.DEBUG) {
+            BallisticLog.debug("BallisticCalculator",
+                "Branch split at %.2f° after %d integrations, reachable: %b",
+                split.angle, split.evaluations, split.reachable);
+        }
+
+        if (!split.reachable) {
+            return new BallisticResult[]{
+                high != null ? high
+                    : new BallisticResult(0, 0, 0, false, new double[0], new double[0], new double[0], 0, 0),
+                low != null ? low
+                    : new BallisticResult(0, 0, 0, false, new double[0], new double[0], new double[0], 0, 0)
+            };
+        }
+
         return new BallisticResult[]{
-            calculateSingleTrajectory(mortar, distance, heightDiff, weather, refinedHighAngle),
-            calculateSingleTrajectory(mortar, distance, heightDiff, weather, refinedLowAngle)
+            high != null ? high : solveBranch(mortar, ammo, projectile, distance, heightDiff, weather, terrain,
+                split.angle, projectile.maxElevation),
+            low != null ? low : solveBranch(mortar, ammo, projectile, distance, heightDiff, weather, terrain,
+                projectile.minElevation, split.angle)
         };
     }
 
-    private static BallisticResult calculateSingleTrajectory(MortarType mortar, double distance,
+    /**
+     * Находит угол ветви методом Брента в скобке [lower, upper] и применяет поправку боеприпаса
+     */
+    private static BallisticResult solveBranch(MortarType mortar, AmmoType ammo,
+                                               TrajectoryIntegrator.Projectile projectile,
+                                               double distance, double heightDiff, WeatherConditions weather,
+                                               TerrainProfile terrain, double lower, double upper) {
+        AngleSolver.Solution solution = new AngleSolver.Solution();
+        boolean bracketed = AngleSolver.solve(projectile, weather, distance, heightDiff, lower, upper,
+            SOLVER_TOLERANCE, SOLVER_MAX_ITERATIONS, solution);
+
+        if (BallisticLog.DEBUG) {
+            BallisticLog.debug("BallisticCalculator",
+                "Brent solve in [%.2f°, %.2f°]: angle %.3f°, miss %.2f m, %d iterations, converged: %b",
+                lower, upper, solution.angle, solution.miss, solution.iterations, solution.converged);
+        }
+
+        if (!bracketed || !solution.converged) {
+            // Цель недостижима на этой ветви: корня в скобке нет или он не найден с точностью SOLVER_TOLERANCE
+            return new BallisticResult(0, 0, 0, false, new double[0], new double[0], new double[0], 0, 0);
+        }
+
+        double angle = ammo.getAngleCorrection(solution.angle);
+        return calculateSingleTrajectory(mortar, projectile, distance, heightDiff, weather, terrain, angle,
+            solution.iterations);
+    }
+
+    /**
+     * Уточняет табличный угол для фактических метеоусловий методом Ньютона,
+     * используя производную угла по дальности из таблицы стрельбы,
+     * затем применяет поправку типа боеприпаса.
+     * @return null, если в таблице нет угла для этой точки или поправки не
+     * вывели промах в пределы {@link #TABLE_TOLERANCE}: ветвь решается методом Брента
+     */
+    private static BallisticResult solveFromTable(MortarType mortar, AmmoType ammo,
+                                                  TrajectoryIntegrator.Projectile projectile,
+                                                  FiringTable table, int branch,
+                                                  double distance, double heightDiff,
+                                                  WeatherConditions weather, TerrainProfile terrain) {
+        FiringTable.Entry entry = new FiringTable.Entry();
+        if (!table.lookup(branch, distance, heightDiff, entry)) {
+            // Точка у края досягаемости: хотя бы один узел ячейки пуст
+            return null;
+        }
+
+        TrajectoryIntegrator.Workspace workspace = TrajectoryIntegrator.workspace();
+        double angle = entry.angle;
+        double miss = Double.POSITIVE_INFINITY;
+        int iterations = 0;
+        // Последнее интегрирование проверяет угол после всех поправок
+        for (int i = 0; i <= WEATHER_CORRECTIONS; i++) {
+            iterations++;
+            if (!integrateInto(projectile, distance, heightDiff, weather, angle, workspace) || !workspace.hit) {
+                miss = Double.POSITIVE_INFINITY;
+                break;
+            }
+            miss = workspace.impactX - distance;
+            if (Math.abs(miss) < TABLE_TOLERANCE || i == WEATHER_CORRECTIONS) {
+                break;
+            }
+            double correction = -miss * entry.anglePerMeter;
+            correction = Math.max(-MAX_TABLE_CORRECTION, Math.min(MAX_TABLE_CORRECTION, correction));
+            angle = Math.max(projectile.minElevation, Math.min(projectile.maxElevation, angle + correction));
+        }
+
+        if (BallisticLog.DEBUG) {
+            BallisticLog.debug("BallisticCalculator",
+                "Table angle %.3f° (%.1f s) corrected for weather to %.3f°, miss %.2f m",
+                entry.angle, entry.timeOfFlight, angle, miss);
+        }
+        // Таблица только ускоряет ответ: не сошедшийся угол отдаем методу Брента,
+        // который обязан попасть в SOLVER_TOLERANCE
+        if (!(Math.abs(miss) < TABLE_TOLERANCE)) {
+            return null;
+        }
+
+        angle = ammo.getAngleCorrection(angle);
+        return calculateSingleTrajectory(mortar, projectile, distance, heightDiff, weather, terrain, angle,
+            iterations);
+    }
+
+    /**
+     * Интегрирует траекторию в рабочую область, если угол допустим для миномета
+     * @return false, если угол вне диапазона возвышения
+     */
+    private static boolean integrateInto(TrajectoryIntegrator.Projectile projectile, double distance,
+                                         double heightDiff, WeatherConditions weather, double angle,
+                                         TrajectoryIntegrator.Workspace workspace) {
+        return integrateInto(projectile, distance, heightDiff, weather, null, angle, workspace);
+    }
+
+    private static boolean integrateInto(TrajectoryIntegrator.Projectile projectile, double distance,
+                                         double heightDiff, WeatherConditions weather, TerrainProfile terrain,
+                                         double angle, TrajectoryIntegrator.Workspace workspace) {
+        if (angle < projectile.minElevation || angle > projectile.maxElevation) {
+            return false;
+        }
+        TrajectoryIntegrator.integrate(integratorMode, projectile, weather, angle, distance, heightDiff,
+            terrain, workspace);
+        return true;
+    }
+
+    private static BallisticResult calculateSingleTrajectory(MortarType mortar,
+                                                           TrajectoryIntegrator.Projectile projectile,
+                                                           double distance,
                                                            double heightDiff, WeatherConditions weather,
-                                                           double angle) {
+                                                           TerrainProfile terrain,
+                                                           double angle, int iterations) {
         // Угол уже скорректирован с учетом типа боеприпаса
-        if (angle < mortar.getMinElevation() || angle > mortar.getMaxElevation()) {
+        TrajectoryIntegrator.Workspace workspace = TrajectoryIntegrator.workspace();
+        if (!integrateInto(projectile, distance, heightDiff, weather, terrain, angle, workspace)) {
             return new BallisticResult(angle, 0, 0, false, new double[0], new double[0], new double[0], 0, 0);
         }
 
         // Логируем ключевые входные параметры
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Starting single trajectory calculation:\n" +
-            "Angle: %.2f°\n" +
-            "Distance: %.2f m\n" + 
-            "Height diff: %.2f m\n" +
-            "Temperature: %.2f°C",
-            angle, distance, heightDiff, weather.temperature));
-
-        // Получаем базовую начальную скорость
-        double v0 = mortar.getMuzzleVelocity();
-        
-        // Корректируем начальную скорость в зависимости от угла возвышения
-        // Чем больше угол, тем меньше фактическая начальная скорость из-за эффекта вертикального ускорения
-        double angleCorrection = 1.0 - 0.15 * Math.sin(Math.toRadians(angle)); // Снижение скорости до 15% при максимальном угле
-        v0 *= angleCorrection;
-        
-        double angleRad = Math.toRadians(angle);
-        
-        double x = 0.0, y = 0.0, z = 0.0;
-        double vx = v0 * Math.cos(angleRad);
-        double vy = v0 * Math.sin(angleRad);
-        double vz = 0.0;
-        
-        double windRad = Math.toRadians(weather.windDirection);
-        double windX = weather.windSpeed * Math.sin(windRad);
-        double windZ = weather.windSpeed * Math.cos(windRad);
-        
-        double time = 0.0;
-        double maxHeight = 0.0;
-        double lastY = 0.0;
-        boolean isAscending = true;
-        
-        java.util.ArrayList<Double> trajectoryX = new java.util.ArrayList<>();
-        java.util.ArrayList<Double> trajectoryY = new java.util.ArrayList<>();
-        java.util.ArrayList<Double> trajectoryZ = new java.util.ArrayList<>();
-        
-        trajectoryX.add(x);
-        trajectoryY.add(y);
-        trajectoryZ.add(z);
-
-        double finalX = 0.0;
-        double finalY = 0.0;
-        double finalZ = 0.0;
-        double impactError = Double.MAX_VALUE;
-        
-        int pointCount = 0;
-        while (time < MAX_TIME) {
-            double height = y;
-            double airDensity = calculateAirDensity(height, weather);
-            
-            double vxRel = vx - windX;
-            double vyRel = vy;
-            double vzRel = vz - windZ;
-            double velocity = Math.sqrt(vxRel * vxRel + vyRel * vyRel + vzRel * vzRel);
-            
-            // Используем коэффициент сопротивления из типа боеприпаса
-            double dragCoeff = mortar.getAmmoType().getDragCoefficient();
-            // Увеличиваем коэффициент сопротивления для более реалистичной траектории
-            dragCoeff *= 1.8; // Корректирующий множитель для более реалистичной высоты
-            
-            double crossSection = Math.PI * Math.pow(mortar.getCaliber() / 2000.0, 2);
-            double dragForce = 0.5 * airDensity * dragCoeff * crossSection * velocity * velocity;
-            
-            // Используем массу снаряда из типа боеприпаса для расчета ускорения
-            double projectileMass = mortar.getAmmoType().getWeight();
-            
-            double ax = -dragForce * vxRel / (velocity * projectileMass);
-            double ay = -GRAVITY - dragForce * vyRel / (velocity * projectileMass);
-            double az = -dragForce * vzRel / (velocity * projectileMass);
-            
-            vx += ax * TIME_STEP;
-            vy += ay * TIME_STEP;
-            vz += az * TIME_STEP;
-            
-            x += vx * TIME_STEP;
-            y += vy * TIME_STEP;
-            z += vz * TIME_STEP;
-            
-            time += TIME_STEP;
-            
-            // Улучшенный расчет максимальной высоты
-            if (isAscending && y < lastY) {
-                // Мы достигли пика траектории
-                maxHeight = lastY;
-                isAscending = false;
-            }
-            lastY = y;
-            
-            // Сохраняем точки траектории
-            if (pointCount % 20 == 0) {
-                trajectoryX.add(x);
-                trajectoryY.add(y);
-                trajectoryZ.add(z);
-            }
-            pointCount++;
-            
-            double distanceToTarget = Math.sqrt(Math.pow(x - distance, 2) + Math.pow(z, 2));
-            
-            // Если мы близки к земле, вычисляем ошибку попадания
-            if (y <= heightDiff) {
-                // Рассчитываем точную точку пересечения с уровнем цели (интерполяция)
-                double ratio;
-                if (Math.abs(lastY - y) < 0.0001) { // защита от деления на ноль
-                    ratio = 0.5; // используем среднее значение
-                } else {
-                    ratio = (lastY - heightDiff) / (lastY - y);
-                }
-                
-                // Проверяем, что интерполяция дает разумный результат
-                if (ratio < 0 || ratio > 1.0) {
-                    ratio = 0.5; // если расчет дал нереальное значение, используем среднее
-                }
-                
-                finalX = (x - vx * TIME_STEP) + vx * TIME_STEP * ratio;
-                finalZ = (z - vz * TIME_STEP) + vz * TIME_STEP * ratio;
-                finalY = heightDiff;
-                
-                // Вычисляем погрешность попадания
-                impactError = Math.sqrt(Math.pow(finalX - distance, 2) + Math.pow(finalZ, 2));
-                
-                android.util.Log.d("BallisticCalculator", String.format(
-                    "Impact at angle %.2f°: point (%.1f, %.1f) m, error: %.1f m",
-                    angle, finalX, finalZ, impactError));
-                    
-                break;
-            }
-            
-            if (Math.abs(x) > mortar.getMaxRange() * 1.2 || 
-                Math.abs(z) > mortar.getMaxRange() * 1.2 || 
-                y < heightDiff - 100) {
-                break;
+        if (BallisticLog.DEBUG) {
+            BallisticLog.debug("BallisticCalculator",
+                "Single trajectory calculated:\n" +
+                "Angle: %.2f°\n" +
+                "Distance: %.2f m\n" + 
+                "Height diff: %.2f m\n" +
+                "Temperature: %.2f°C",
+                angle, distance, heightDiff, weather.temperature);
+        }
+
+        if (workspace.hit) {
+            if (BallisticLog.DEBUG) {
+                BallisticLog.debug("BallisticCalculator",
+                    "Impact at angle %.2f°: point (%.1f, %.1f) m, error: %.1f m, terrain: %b",
+                    angle, workspace.impactX, workspace.impactZ, workspace.impactError, workspace.terrainHit);
             }
         }
 
+        // Рельеф перекрывает траекторию, если она задевает его далеко от цели
+        boolean masked = workspace.terrainHit && workspace.impactError > HIT_ACCURACY;
+        double minClearance = terrain != null && !Double.isInfinite(workspace.minClearance)
+            ? workspace.minClearance : Double.NaN;
+
         // Применяем масштабирующий коэффициент к максимальной высоте для более реалистичных значений
-        maxHeight *= 0.6; // Уменьшаем максимальную высоту на 40%
+        double maxHeight = workspace.maxHeight * 0.6; // Уменьшаем максимальную высоту на 40%
 
-        return new BallisticResult(angle, time, maxHeight, true,
-            trajectoryX.stream().mapToDouble(d -> d).toArray(),
-            trajectoryY.stream().mapToDouble(d -> d).toArray(),
-            trajectoryZ.stream().mapToDouble(d -> d).toArray(),
-            calculateImpactEllipseMajor(mortar, distance, angle),
+        // Копируем только итоговые точки, буферы рабочей области переиспользуются
+        int count = workspace.count;
+        // Эллипс проецируется на склон у цели по углу падения в точке падения
+        double rangeStretch = terrain != null && workspace.hit
+            ? terrain.rangeStretch(workspace.descentTangent) : 1.0;
+        // Снаряд, не достигший уровня цели, не попадает в нее ни при каком рельефе
+        return new BallisticResult(angle, workspace.time, maxHeight, workspace.hit && !masked,
+            Arrays.copyOf(workspace.x, count),
+            Arrays.copyOf(workspace.y, count),
+            Arrays.copyOf(workspace.z, count),
+            calculateImpactEllipseMajor(mortar, distance, angle) * rangeStretch,
             calculateImpactEllipseMinor(mortar, distance, angle),
-            impactError, finalX, finalY);
+            workspace.impactError, workspace.impactX, workspace.impactY, iterations,
+            workspace.terrainHit, minClearance);
+    }
+
+    /**
+     * Решение с наименьшим временем полета среди траекторий, проходящих над
+     * рельефом. Перекрытые рельефом ветви уже помечены недостижимыми, поэтому
+     * достаточно сравнить допустимые решения.
+     * @return индекс в массиве результатов или -1, если подходящих решений нет
+     */
+    public static int fastestClearSolution(BallisticResult[] results) {
+        int best = -1;
+        for (int i = 0; i < results.length; i++) {
+            BallisticResult result = results[i];
+            if (result.isValid && (best < 0 || result.timeOfFlight < results[best].timeOfFlight)) {
+                best = i;
+            }
+        }
+        return best;
     }
 
     private static double calculateImpactEllipseMajor(MortarType mortar, double distance, double angle) {
@@ -500,88 +455,4 @@ public class BallisticCalculator {
         double baseError = mortar.getCaliber() == 82 ? 0.007 : 0.005;
         return distance * baseError * (1.0 + Math.cos(Math.toRadians(angle)) * 0.5);
     }
-
-    // Новый метод для итеративного нахождения оптимального угла с учетом всех физических факторов
-    private static double refineAngleWithPhysics(MortarType mortar, double distance, double heightDiff, 
-                                              WeatherConditions weather, double initialAngle,
-                                              double minAngle, double maxAngle) {
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Starting iterative angle refinement:\n" +
-            "Initial angle: %.2f°\n" +
-            "Range: %.2f° - %.2f°\n" +
-            "Distance: %.1f m, Height: %.1f m\n" +
-            "Temperature: %.1f°C, Pressure: %.1f hPa",
-            initialAngle, minAngle, maxAngle, 
-            distance, heightDiff,
-            weather.temperature, weather.pressure
-        ));
-    
-        double currentAngle = initialAngle;
-        double bestAngle = initialAngle;
-        double minError = Double.MAX_VALUE;
-        
-        // Адаптивный начальный шаг в зависимости от диапазона углов и расстояния
-        double step = Math.min(2.0, (maxAngle - minAngle) / 10.0);
-        
-        // Логируем информацию о шаге поиска
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Starting angle search with step: %.2f°", step));
-        
-        // Максимум 5 итераций для скорости работы
-        for (int iteration = 0; iteration < 5; iteration++) {
-            // Рассчитываем траекторию с текущим углом
-            BallisticResult result = calculateSingleTrajectory(mortar, distance, heightDiff, weather, currentAngle);
-            
-            if (result.isValid && !Double.isNaN(result.impactError) && !Double.isInfinite(result.impactError)) {
-                double error = result.impactError;
-                
-                android.util.Log.d("BallisticCalculator", String.format(
-                    "Iteration %d: Angle %.2f° -> Error %.1f m",
-                    iteration+1, currentAngle, error));
-                
-                // Если ошибка меньше, чем минимальная найденная, обновляем лучший угол
-                if (error < minError) {
-                    minError = error;
-                    bestAngle = currentAngle;
-                }
-                
-                // Если ошибка достаточно мала, завершаем поиск
-                if (error < 10.0) { // Допустимая ошибка 10 метров
-                    break;
-                }
-                
-                // Корректировка угла в зависимости от ошибки
-                if (!Double.isNaN(result.impactX) && !Double.isInfinite(result.impactX) && result.impactX < distance) {
-                    // Недолет - увеличиваем угол
-                    currentAngle += step;
-                } else {
-                    // Перелет - уменьшаем угол
-                    currentAngle -= step;
-                }
-                
-                // Уменьшаем шаг с каждой итерацией
-                step *= 0.7;
-                
-                // Проверяем не вышли ли за границы допустимого диапазона углов
-                currentAngle = Math.max(minAngle, Math.min(maxAngle, currentAngle));
-            } else {
-                android.util.Log.d("BallisticCalculator", String.format(
-                    "Iteration %d: Angle %.2f° produced invalid trajectory, adjusting",
-                    iteration+1, currentAngle));
-                    
-                // Если траектория недействительна, делаем большой шаг в сторону допустимого диапазона
-                currentAngle = (minAngle + maxAngle) / 2.0;
-            }
-        }
-        
-        android.util.Log.d("BallisticCalculator", String.format(
-            "Angle refinement complete:\n" +
-            "Initial angle: %.2f°\n" +
-            "Final angle: %.2f°\n" +
-            "Minimum error: %.1f m",
-            initialAngle, bestAngle, minError
-        ));
-        
-        return bestAngle;
-    }
-} 
\ No newline at end of file
+}
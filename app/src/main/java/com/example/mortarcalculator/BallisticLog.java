@@ -0,0 +1,53 @@
+package com.example.mortarcalculator;
+
+/**
+ * Журнал баллистического расчета с уровнем, заданным при сборке.
+ *
+ * Уровень берется из BuildConfig.BALLISTIC_LOG_LEVEL (см. build.gradle) и является
+ * константой времени компиляции, поэтому вызовы, обернутые в
+ * {@code if (BallisticLog.DEBUG)} или {@code if (BallisticLog.TRACE)}, вместе с
+ * упаковкой аргументов и String.format удаляются компилятором из сборок,
+ * где этот уровень выключен.
+ */
+final class BallisticLog {
+    static final int LEVEL_OFF = 0;
+    static final int LEVEL_DEBUG = 1; // по одной записи на расчет
+    static final int LEVEL_TRACE = 2; // записи на каждом шаге интегрирования
+
+    static final int LEVEL = BuildConfig.BALLISTIC_LOG_LEVEL;
+    static final boolean DEBUG = LEVEL >= LEVEL_DEBUG;
+    static final boolean TRACE = LEVEL >= LEVEL_TRACE;
+
+    private BallisticLog() {}
+
+    /**
+     * Запись уровня DEBUG. Вызывать только под {@code if (BallisticLog.DEBUG)}.
+     */
+    static void debug(String tag, String format, Object... args) {
+        if (DEBUG) {
+            android.util.Log.d(tag, String.format(format, args));
+        }
+    }
+
+    /**
+     * Предупреждение, пишется при любом уровне. Код таблиц стрельбы выполняется
+     * и на сборочной машине (generateFiringTables), где android.util.Log из
+     * android.jar бросает RuntimeException("Stub!"): там запись уходит в System.err.
+     */
+    static void warn(String tag, String message) {
+        try {
+            android.util.Log.w(tag, message);
+        } catch (RuntimeException e) {
+            System.err.println("W/" + tag + ": " + message);
+        }
+    }
+
+    /**
+     * Запись уровня TRACE. Вызывать только под {@code if (BallisticLog.TRACE)}.
+     */
+    static void trace(String tag, String format, Object... args) {
+        if (TRACE) {
+            android.util.Log.v(tag, String.format(format, args));
+        }
+    }
+}
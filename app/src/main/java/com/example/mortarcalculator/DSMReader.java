@@ -1,78 +1,271 @@
-package com.example.mortarcalculator;
-
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
-import java.io.InputStream;
-import java.io.IOException;
-
-public class DSMReader {
-    private static Bitmap elevationBitmap;
-    private static final double LAT_MIN = 30.4;
-    private static final double LAT_MAX = 30.6;
-    private static final double LON_MIN = 47.7;
-    private static final double LON_MAX = 47.9;
-    private static final double ELEVATION_SCALE = 0.3;  // метров на единицу цвета
-    private static final double MIN_ELEVATION = 0.0;    // минимальная высота
-    private static final double MAX_ELEVATION = 100.0;  // максимальная высота в метрах
-
-    public static void loadElevationData(InputStream inputStream, Context context) throws IOException {
-        // Загружаем изображение как обычный bitmap
-        elevationBitmap = BitmapFactory.decodeStream(inputStream);
-        if (elevationBitmap == null) {
-            throw new IOException("Failed to decode elevation data");
-        }
-    }
-
-    /**
-     * Получает высоту местности в указанной точке
-     * @param lat широта
-     * @param lon долгота
-     * @return высота в метрах или 0.0 если точка вне карты
-     */
-    public static double getElevation(double lat, double lon) {
-        if (elevationBitmap == null) return 0.0;
-
-        // Проверка границ карты
-        if (lat < LAT_MIN || lat > LAT_MAX || lon < LON_MIN || lon > LON_MAX) {
-            return 0.0;
-        }
-
-        int width = elevationBitmap.getWidth();
-        int height = elevationBitmap.getHeight();
-
-        // Преобразование координат в пиксели
-        double xd = (lon - LON_MIN) / (LON_MAX - LON_MIN) * (width - 1);
-        double yd = (lat - LAT_MIN) / (LAT_MAX - LAT_MIN) * (height - 1);
-
-        // Целые координаты для интерполяции
-        int x0 = (int) Math.floor(xd);
-        int y0 = (int) Math.floor(yd);
-        int x1 = Math.min(x0 + 1, width - 1);
-        int y1 = Math.min(y0 + 1, height - 1);
-
-        // Веса для интерполяции
-        double wx = xd - x0;
-        double wy = yd - y0;
-
-        // Получение высот в четырех ближайших точках
-        double h00 = getPixelElevation(x0, y0);
-        double h10 = getPixelElevation(x1, y0);
-        double h01 = getPixelElevation(x0, y1);
-        double h11 = getPixelElevation(x1, y1);
-
-        // Билинейная интерполяция
-        double h0 = h00 * (1 - wx) + h10 * wx;
-        double h1 = h01 * (1 - wx) + h11 * wx;
-        double elevation = h0 * (1 - wy) + h1 * wy;
-
-        return Math.max(MIN_ELEVATION, Math.min(MAX_ELEVATION, elevation * ELEVATION_SCALE));
-    }
-
-    private static double getPixelElevation(int x, int y) {
-        int pixel = elevationBitmap.getPixel(x, y);
-        // Используем среднее значение RGB как высоту
-        return (Color.red(pixel) + Color.green(pixel) + Color.blue(pixel)) / 3.0;
-    }
-}
\ No newline at end of file
+package com.example.mortarcalculator;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.util.Log;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class DSMReader {
+    private static final String TAG = "DSMReader";
+    static final String HEIGHTMAP_ASSET = "al_basrah/heightmap.png";
+
+    private static volatile ElevationGrid elevationGrid;
+    // Узел сетки (x, y) - центр пикселя (x, y) этой проекции
+    private static volatile MapProjection heightmapProjection;
+    // Пирамида максимумов для быстрых проверок видимости; строится вместе с сеткой
+    private static volatile ElevationPyramid elevationPyramid;
+    // Крутизна и экспозиция склонов для эллипсов рассеивания; null, если не вычислялись
+    private static volatile SlopeGrid slopeGrid;
+    private static volatile boolean slopeEnabled = true;
+    // Загрузка рельефа и чтение высот идут в отдельном потоке, не занимая UI и пул решателя
+    private static final ExecutorService TERRAIN = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TerrainReader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Завершается, когда рельеф загружен (или загрузка не удалась)
+    private static volatile CompletableFuture<Void> loaded = CompletableFuture.completedFuture(null);
+    // Привязка карты высот по крайним узлам, если рядом с ней нет world-файла
+    private static final double DEFAULT_LAT_MIN = 30.4;
+    private static final double DEFAULT_LAT_MAX = 30.6;
+    private static final double DEFAULT_LON_MIN = 47.7;
+    private static final double DEFAULT_LON_MAX = 47.9;
+    private static final double ELEVATION_SCALE = 0.3;  // метров на единицу цвета
+    private static final double MIN_ELEVATION = 0.0;    // минимальная высота
+    private static final double MAX_ELEVATION = 100.0;  // максимальная высота в метрах
+
+    // В сетке храним сумму R + G + B: высота = сумма / 3 * ELEVATION_SCALE
+    private static final double GRID_UNIT = ELEVATION_SCALE / 3.0;
+    // Строк изображения в одной полосе декодирования: 64 строки по 4096 пикселей - 1 МБ
+    private static final int STRIP_ROWS = 64;
+
+    /**
+     * Загружает карту высот и регистрирует тайлы рельефа в фоне.
+     * Запросы высоты, пришедшие раньше, дождутся окончания загрузки.
+     */
+    public static void loadAsync(Context context) {
+        Context app = context.getApplicationContext();
+        loaded = CompletableFuture.runAsync(() -> {
+            try (InputStream inputStream = app.getAssets().open(HEIGHTMAP_ASSET)) {
+                loadElevationData(inputStream, app);
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading heightmap: " + e.getMessage());
+            }
+            TerrainService.init(app);
+        }, TERRAIN);
+    }
+
+    /**
+     * Вычислять ли сетки крутизны и экспозиции при загрузке карты высот.
+     * Действует на следующую загрузку.
+     */
+    public static void setSlopeEnabled(boolean enabled) {
+        slopeEnabled = enabled;
+    }
+
+    /**
+     * Высота местности в точке, прочитанная в фоне после загрузки рельефа.
+     * Не завершается с ошибкой: при сбое чтения возвращает 0.
+     */
+    public static CompletableFuture<Double> getElevationAsync(double lat, double lon) {
+        return loaded.thenApplyAsync(ignored -> getElevation(lat, lon), TERRAIN)
+            .exceptionally(error -> {
+                Log.e(TAG, "Elevation lookup failed", error);
+                return 0.0;
+            });
+    }
+
+    public static void loadElevationData(InputStream inputStream, Context context) throws IOException {
+        // Изображение целиком не декодируется: полосы пишутся сразу в сетку высот,
+        // поэтому в памяти одновременно только сетка (2 байта на отсчет) и одна полоса
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+        if (decoder == null) {
+            throw new IOException("Failed to decode elevation data");
+        }
+        try {
+            ElevationGrid grid = toGrid(decoder);
+            MapProjection projection = heightmapProjection(context, grid.width, grid.height);
+            elevationPyramid = new ElevationPyramid(grid);
+            slopeGrid = slopeEnabled
+                ? SlopeGrid.derive(grid, projection.metersPerPixelX(), projection.metersPerPixelY()) : null;
+            heightmapProjection = projection;
+            elevationGrid = grid;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Привязка карты высот: из сопроводительного файла в assets или
+     * по умолчанию - крайние узлы на границах района Аль-Басры
+     */
+    private static MapProjection heightmapProjection(Context context, int width, int height) {
+        double lonStep = (DEFAULT_LON_MAX - DEFAULT_LON_MIN) / Math.max(1, width - 1);
+        double latStep = (DEFAULT_LAT_MAX - DEFAULT_LAT_MIN) / Math.max(1, height - 1);
+        MapProjection fallback = MapProjection.fromBounds(
+            DEFAULT_LON_MIN - lonStep / 2, DEFAULT_LAT_MIN - latStep / 2,
+            DEFAULT_LON_MAX + lonStep / 2, DEFAULT_LAT_MAX + latStep / 2, width, height);
+        if (context == null) {
+            return fallback;
+        }
+        return MapProjection.load(context.getAssets(), HEIGHTMAP_ASSET, width, height, fallback);
+    }
+
+    /**
+     * Пересекается ли район с картой высот. Читает только размер изображения
+     * и сопроводительный файл, без декодирования высот, поэтому годится
+     * для UI-потока до окончания фоновой загрузки.
+     */
+    public static boolean overlapsHeightmap(Context context, MapProjection area) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream inputStream = context.getAssets().open(HEIGHTMAP_ASSET)) {
+            BitmapFactory.decodeStream(inputStream, null, bounds);
+        } catch (IOException e) {
+            return false;
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return false;
+        }
+        return heightmapProjection(context, bounds.outWidth, bounds.outHeight).overlaps(area);
+    }
+
+    /**
+     * Переводит изображение в сетку высот полосами по {@link #STRIP_ROWS} строк.
+     * Все полосы декодируются в один и тот же Bitmap.
+     */
+    private static ElevationGrid toGrid(BitmapRegionDecoder decoder) throws IOException {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        short[] samples = new short[width * height];
+        int[] row = new int[width];
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        Rect region = new Rect();
+        Bitmap strip = null;
+        try {
+            for (int top = 0; top < height; top += STRIP_ROWS) {
+                int rows = Math.min(STRIP_ROWS, height - top);
+                region.set(0, top, width, top + rows);
+                // Последняя полоса короче: она рисуется в верхнюю часть того же Bitmap
+                options.inBitmap = strip;
+                Bitmap decoded = decoder.decodeRegion(region, options);
+                if (decoded == null) {
+                    throw new IOException("Failed to decode elevation rows " + top + ".." + (top + rows - 1));
+                }
+                if (strip != null && decoded != strip) {
+                    strip.recycle();
+                }
+                strip = decoded;
+                for (int y = 0; y < rows; y++) {
+                    strip.getPixels(row, 0, width, 0, y, width, 1);
+                    int offset = (top + y) * width;
+                    for (int x = 0; x < width; x++) {
+                        int pixel = row[x];
+                        // Используем среднее значение RGB как высоту
+                        samples[offset + x] = (short) (Color.red(pixel) + Color.green(pixel) + Color.blue(pixel));
+                    }
+                }
+            }
+        } finally {
+            if (strip != null) {
+                strip.recycle();
+            }
+        }
+        return new ElevationGrid(width, height, GRID_UNIT, samples);
+    }
+
+    /**
+     * Получает высоту местности в указанной точке: из тайлов TerrainService,
+     * если они покрывают точку, иначе из карты высот
+     * @param lat широта
+     * @param lon долгота
+     * @return высота в метрах или 0.0 если точка вне карты
+     */
+    public static double getElevation(double lat, double lon) {
+        double terrain = TerrainService.getElevation(lat, lon);
+        if (!Double.isNaN(terrain)) {
+            return terrain;
+        }
+
+        ElevationGrid grid = elevationGrid;
+        if (grid == null) return 0.0;
+
+        // Проверка границ карты
+        MapProjection projection = heightmapProjection;
+        double x = gridX(projection, lon);
+        double y = gridY(projection, lat);
+        if (!inside(grid, x, y)) {
+            return 0.0;
+        }
+
+        // Билинейная интерполяция
+        double elevation = grid.bilinear(x, y);
+
+        return Math.max(MIN_ELEVATION, Math.min(MAX_ELEVATION, elevation));
+    }
+
+    /**
+     * Проверяет прямую видимость между двумя точками по карте высот.
+     * Участки отрезка за пределами карты считаются открытыми.
+     * @param fromHeight высота первой точки в метрах
+     * @param toHeight высота второй точки в метрах
+     * @return true, если отрезок проходит над рельефом или карта не загружена
+     */
+    public static boolean lineOfSight(double fromLat, double fromLon, double fromHeight,
+                                      double toLat, double toLon, double toHeight) {
+        ElevationGrid grid = elevationGrid;
+        ElevationPyramid pyramid = elevationPyramid;
+        if (grid == null || pyramid == null) {
+            return true;
+        }
+        MapProjection projection = heightmapProjection;
+        return pyramid.lineOfSight(gridX(projection, fromLon), gridY(projection, fromLat), fromHeight,
+            gridX(projection, toLon), gridY(projection, toLat), toHeight);
+    }
+
+    /**
+     * Подъем рельефа в точке в метрах на метр по горизонтали в заданном направлении
+     * по заранее вычисленной сетке крутизны и экспозиции
+     * @param azimuth направление в градусах от севера по часовой стрелке
+     * @return подъем (отрицательный - спуск) или NaN, если сетки нет или точка вне карты
+     */
+    public static double getTerrainRise(double lat, double lon, double azimuth) {
+        SlopeGrid slope = slopeGrid;
+        ElevationGrid grid = elevationGrid;
+        if (slope == null || grid == null) {
+            return Double.NaN;
+        }
+        MapProjection projection = heightmapProjection;
+        double x = gridX(projection, lon);
+        double y = gridY(projection, lat);
+        if (!inside(grid, x, y)) {
+            return Double.NaN;
+        }
+        // Сетки одного размера, если загрузка не идет параллельно с запросом
+        return slope.rise(Math.min(slope.width - 1, (int) Math.round(x)),
+            Math.min(slope.height - 1, (int) Math.round(y)), azimuth);
+    }
+
+    // Преобразование координат в узлы сетки: узел - центр пикселя
+    private static double gridX(MapProjection projection, double lon) {
+        return projection.pixelX(lon) - 0.5;
+    }
+
+    private static double gridY(MapProjection projection, double lat) {
+        return projection.pixelY(lat) - 0.5;
+    }
+
+    private static boolean inside(ElevationGrid grid, double x, double y) {
+        return x >= 0 && x <= grid.width - 1 && y >= 0 && y <= grid.height - 1;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.mortarcalculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Привязка растра высот: размер, координаты центра левого верхнего пикселя,
+ * шаг в градусах и порядок байт 16-битных отсчетов.
+ *
+ * Разбирает сопроводительные файлы, которые поставляются с тайлами:
+ * world-файл (.tfw), текстовую выгрузку listgeo (srtm_*.hdr), заголовок
+ * ESRI BIL (.hdr) и заголовок ALOS AW3D30 (*_HDR.txt).
+ */
+final class DemHeader {
+    final int width; // пикселей в строке
+    final int height; // строк
+    final double originLat; // широта центра левого верхнего пикселя
+    final double originLon; // долгота центра левого верхнего пикселя
+    final double latStep; // градусов на строку (строки идут на юг)
+    final double lonStep; // градусов на столбец
+    final ByteOrder order; // порядок байт отсчетов
+    final int noData; // значение "нет данных"
+
+    static final int NO_DATA_NONE = Integer.MIN_VALUE; // отсчеты short не совпадут с этим значением
+    static final int NO_DATA_SRTM = -32768;
+    static final int NO_DATA_ALOS = -9999;
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+    private static final Pattern ALOS_SIZE = Pattern.compile("(\\d+)\\s+(\\d+)(LSB|MSB)\\s+(\\d+)");
+    private static final Pattern ALOS_CORNER = Pattern.compile("-?\\d{1,3}\\.\\d{7}");
+
+    DemHeader(int width, int height, double originLat, double originLon,
+              double latStep, double lonStep, ByteOrder order, int noData) {
+        if (width <= 0 || height <= 0 || !(latStep > 0) || !(lonStep > 0)) {
+            throw new IllegalArgumentException(String.format(
+                "Invalid raster geometry: %d x %d, step %.9f x %.9f", width, height, latStep, lonStep));
+        }
+        this.width = width;
+        this.height = height;
+        this.originLat = originLat;
+        this.originLon = originLon;
+        this.latStep = latStep;
+        this.lonStep = lonStep;
+        this.order = order;
+        this.noData = noData;
+    }
+
+    // Границы растра по краям пикселей
+    double north() { return originLat + 0.5 * latStep; }
+    double south() { return originLat - (height - 0.5) * latStep; }
+    double west() { return originLon - 0.5 * lonStep; }
+    double east() { return originLon + (width - 0.5) * lonStep; }
+
+    /**
+     * World-файл (.tfw): шесть чисел A, D, B, E, C, F, где C и F - центр
+     * левого верхнего пикселя. Размер растра в world-файле не хранится.
+     */
+    static DemHeader parseWorldFile(Reader reader, int width, int height, ByteOrder order, int noData)
+            throws IOException {
+        double[] values = readNumbers(reader, 6);
+        if (values[1] != 0 || values[2] != 0) {
+            throw new IOException("Rotated world files are not supported");
+        }
+        return new DemHeader(width, height, values[5], values[4], -values[3], values[0], order, noData);
+    }
+
+    /**
+     * Файл .hdr: выгрузка listgeo (начинается с Geotiff_Information) или
+     * заголовок ESRI BIL (NROWS, NCOLS, BYTEORDER, ULXMAP, ULYMAP, XDIM, YDIM, NODATA)
+     */
+    static DemHeader parseHdr(Reader reader, int noData) throws IOException {
+        String text = readAll(reader);
+        if (text.trim().startsWith("Geotiff_Information")) {
+            // Сырые выгрузки из GeoTIFF пишутся в порядке байт x86
+            return parseGeoTiffInfo(new java.io.StringReader(text), ByteOrder.LITTLE_ENDIAN, noData);
+        }
+        return parseEsriHeader(text, noData);
+    }
+
+    private static DemHeader parseEsriHeader(String text, int noData) throws IOException {
+        int rows = 0, columns = 0, bits = 16;
+        double ulx = Double.NaN, uly = Double.NaN, xdim = Double.NaN, ydim = Double.NaN;
+        ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+        for (String line : text.split("\\r?\\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length < 2) {
+                continue;
+            }
+            String key = parts[0].toUpperCase(java.util.Locale.ROOT);
+            String value = parts[1];
+            switch (key) {
+                case "NROWS": rows = Integer.parseInt(value); break;
+                case "NCOLS": columns = Integer.parseInt(value); break;
+                case "NBITS": bits = Integer.parseInt(value); break;
+                case "BYTEORDER": order = value.equalsIgnoreCase("M") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN; break;
+                case "ULXMAP": ulx = Double.parseDouble(value); break;
+                case "ULYMAP": uly = Double.parseDouble(value); break;
+                case "XDIM": xdim = Double.parseDouble(value); break;
+                case "YDIM": ydim = Double.parseDouble(value); break;
+                case "NODATA": noData = (int) Math.round(Double.parseDouble(value)); break;
+                default: break;
+            }
+        }
+        if (bits != 16) {
+            throw new IOException("Only 16-bit BIL rasters are supported");
+        }
+        if (Double.isNaN(ulx) || Double.isNaN(uly) || Double.isNaN(xdim) || Double.isNaN(ydim)) {
+            throw new IOException("BIL header has no georeferencing");
+        }
+        // ULXMAP/ULYMAP - центр левого верхнего пикселя
+        return new DemHeader(columns, rows, uly, ulx, ydim, xdim, order, noData);
+    }
+
+    /**
+     * Текстовая выгрузка GeoTIFF-тегов (listgeo), как srtm_44_03.hdr:
+     * ModelTiepointTag, ModelPixelScaleTag, тип привязки и углы растра.
+     */
+    static DemHeader parseGeoTiffInfo(Reader reader, ByteOrder order, int noData) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        double[] tiepoint = null;
+        double[] scale = null;
+        double[] upperLeft = null;
+        double[] lowerRight = null;
+        boolean pixelIsPoint = false;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("ModelTiepointTag")) {
+                lines.readLine(); // строка с координатами пикселя (0, 0, 0)
+                tiepoint = numbers(lines.readLine());
+            } else if (trimmed.startsWith("ModelPixelScaleTag")) {
+                scale = numbers(lines.readLine());
+            } else if (trimmed.startsWith("GTRasterTypeGeoKey")) {
+                pixelIsPoint = trimmed.contains("RasterPixelIsPoint");
+            } else if (trimmed.startsWith("Upper Left")) {
+                upperLeft = numbers(trimmed.substring(trimmed.indexOf('(')));
+            } else if (trimmed.startsWith("Lower Right")) {
+                lowerRight = numbers(trimmed.substring(trimmed.indexOf('(')));
+            }
+        }
+        if (tiepoint == null || tiepoint.length < 2 || scale == null || scale.length < 2
+                || upperLeft == null || lowerRight == null) {
+            throw new IOException("Missing GeoTIFF tiepoint, pixel scale or corner coordinates");
+        }
+
+        double lonStep = scale[0];
+        double latStep = scale[1];
+        // Углы в выгрузке даны по краям растра, размер получаем из них
+        int width = (int) Math.round((lowerRight[0] - upperLeft[0]) / lonStep);
+        int height = (int) Math.round((upperLeft[1] - lowerRight[1]) / latStep);
+        // Для PixelIsArea точка привязки - угол пикселя, переходим к центру
+        double half = pixelIsPoint ? 0.0 : 0.5;
+        return new DemHeader(width, height, tiepoint[1] - half * latStep, tiepoint[0] + half * lonStep,
+            latStep, lonStep, order, noData);
+    }
+
+    /**
+     * Заголовок ALOS AW3D30 (ALPSMLC30_*_HDR.txt): запись фиксированной длины
+     * с углами тайла (широта, долгота для UL, UR, LL, LR по краям пикселей),
+     * размером растра и порядком байт ("3600 3600LSB 16").
+     */
+    static DemHeader parseAlosHeader(Reader reader) throws IOException {
+        String text = readAll(reader);
+
+        Matcher size = ALOS_SIZE.matcher(text);
+        if (!size.find()) {
+            throw new IOException("ALOS header has no raster size");
+        }
+        int width = Integer.parseInt(size.group(1));
+        int height = Integer.parseInt(size.group(2));
+        ByteOrder order = size.group(3).equals("LSB") ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        if (Integer.parseInt(size.group(4)) != 16) {
+            throw new IOException("Only 16-bit ALOS rasters are supported");
+        }
+
+        // Первые восемь чисел с семью знаками после запятой - углы тайла
+        Matcher corner = ALOS_CORNER.matcher(text);
+        double[] corners = new double[8];
+        for (int i = 0; i < corners.length; i++) {
+            if (!corner.find()) {
+                throw new IOException("ALOS header has no corner coordinates");
+            }
+            corners[i] = Double.parseDouble(corner.group());
+        }
+        double north = corners[0];
+        double west = corners[1];
+        double east = corners[3];
+        double south = corners[4];
+        double latStep = (north - south) / height;
+        double lonStep = (east - west) / width;
+        return new DemHeader(width, height, north - 0.5 * latStep, west + 0.5 * lonStep,
+            latStep, lonStep, order, NO_DATA_ALOS);
+    }
+
+    private static double[] readNumbers(Reader reader, int count) throws IOException {
+        double[] all = numbers(readAll(reader));
+        if (all.length < count) {
+            throw new IOException("Expected " + count + " numbers, found " + all.length);
+        }
+        return all;
+    }
+
+    private static double[] numbers(String text) throws IOException {
+        if (text == null) {
+            throw new IOException("Unexpected end of header");
+        }
+        List<Double> values = new ArrayList<>();
+        Matcher matcher = NUMBER.matcher(text);
+        while (matcher.find()) {
+            values.add(Double.parseDouble(matcher.group()));
+        }
+        double[] result = new double[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.mortarcalculator;
+
+import android.content.res.AssetManager;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Кривая коэффициента сопротивления Cd от числа Маха.
+ *
+ * Значения хранятся на равномерной сетке от M = 0, поэтому поиск сводится
+ * к умножению и одному индексу без циклов и выделения памяти; между узлами
+ * используется линейная интерполяция, за пределами сетки берется крайнее значение.
+ *
+ * Кривые загружаются из assets/drag_curves/*.cd, текстовый формат:
+ * <pre>
+ * # комментарий
+ * ammo = О-832ДУ (Осколочный)   имя боеприпаса, строк может быть несколько
+ * scale = 0.81                   форм-фактор к эталонной кривой (G1, G7 и т.п.), по умолчанию 1
+ * 0.00 0.2629                    пары "число Маха  Cd" по возрастанию Маха, шаг любой
+ * 0.05 0.2558
+ * ...
+ * </pre>
+ * Неравномерные таблицы пересчитываются на сетку с шагом {@link #MACH_STEP}.
+ */
+final class DragCurve {
+    static final String ASSET_DIR = "drag_curves";
+    static final String EXTENSION = ".cd";
+    static final double MACH_STEP = 0.01; // шаг сетки при пересчете таблиц из файлов
+    private static final int MAX_NODES = 1001; // не больше M = 10 при шаге 0.01
+
+    // Калибровочный множитель исходной модели: постоянный Cd боеприпаса
+    // увеличивался в 1.8 раза для более реалистичной высоты траектории
+    static final double LEGACY_CORRECTION = 1.8;
+
+    private static final String TAG = "DragCurve";
+
+    private final double inverseStep;
+    private final double[] cd;
+    private final int last;
+
+    private DragCurve(double step, double[] cd) {
+        this.inverseStep = 1.0 / step;
+        this.cd = cd;
+        this.last = cd.length - 1;
+    }
+
+    /**
+     * Кривая с постоянным Cd, не зависящим от числа Маха
+     */
+    public static DragCurve constant(double cd) {
+        return new DragCurve(1.0, new double[]{cd, cd});
+    }
+
+    /**
+     * Кривая по парам (число Маха, Cd), умноженным на форм-фактор
+     * @param mach числа Маха по возрастанию
+     * @param cd коэффициенты сопротивления в тех же точках
+     * @param scale форм-фактор относительно эталонной кривой
+     */
+    public static DragCurve fromPoints(double[] mach, double[] cd, double scale) {
+        if (mach.length != cd.length || mach.length < 2) {
+            throw new IllegalArgumentException("Drag curve needs at least two points");
+        }
+        for (int i = 1; i < mach.length; i++) {
+            if (!(mach[i] > mach[i - 1])) {
+                throw new IllegalArgumentException("Mach numbers must be increasing: " + mach[i]);
+            }
+        }
+        if (mach[0] < 0) {
+            throw new IllegalArgumentException("Negative Mach number: " + mach[0]);
+        }
+
+        int count = Math.min(MAX_NODES, (int) Math.ceil(mach[mach.length - 1] / MACH_STEP) + 1);
+        double[] values = new double[count];
+        int segment = 0;
+        for (int i = 0; i < count; i++) {
+            double m = i * MACH_STEP;
+            while (segment < mach.length - 2 && m > mach[segment + 1]) {
+                segment++;
+            }
+            double value;
+            if (m <= mach[0]) {
+                value = cd[0];
+            } else if (m >= mach[mach.length - 1]) {
+                value = cd[cd.length - 1];
+            } else {
+                double fraction = (m - mach[segment]) / (mach[segment + 1] - mach[segment]);
+                value = cd[segment] + (cd[segment + 1] - cd[segment]) * fraction;
+            }
+            values[i] = value * scale;
+        }
+        return new DragCurve(MACH_STEP, values);
+    }
+
+    /**
+     * Коэффициент сопротивления для числа Маха
+     */
+    public double cd(double mach) {
+        double position = mach * inverseStep;
+        int index = (int) position;
+        if (index >= last) {
+            return cd[last];
+        }
+        double fraction = position - index;
+        return cd[index] + (cd[index + 1] - cd[index]) * fraction;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof DragCurve)) {
+            return false;
+        }
+        DragCurve curve = (DragCurve) other;
+        return inverseStep == curve.inverseStep && Arrays.equals(cd, curve.cd);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.valueOf(inverseStep).hashCode() + Arrays.hashCode(cd);
+    }
+
+    /**
+     * Загружает кривые из assets и назначает их предопределенным боеприпасам.
+     * Вызывать до построения таблиц стрельбы.
+     */
+    public static void loadAssets(AssetManager assets) {
+        String[] names;
+        try {
+            names = assets.list(ASSET_DIR);
+        } catch (IOException e) {
+            BallisticLog.warn(TAG, "Cannot list drag curves: " + e.getMessage());
+            return;
+        }
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (!name.endsWith(EXTENSION)) {
+                continue;
+            }
+            try (InputStream stream = assets.open(ASSET_DIR + "/" + name)) {
+                apply(name, stream);
+            } catch (IOException | IllegalArgumentException e) {
+                BallisticLog.warn(TAG, "Cannot load drag curve " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Загружает кривые из каталога (для генерации таблиц на сборочной машине)
+     */
+    static void loadDirectory(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().endsWith(EXTENSION)) {
+                try (InputStream stream = new FileInputStream(file)) {
+                    apply(file.getName(), stream);
+                }
+            }
+        }
+    }
+
+    private static void apply(String fileName, InputStream stream) throws IOException {
+        List<String> ammoNames = new ArrayList<>();
+        DragCurve curve = parse(stream, ammoNames);
+        for (String ammoName : ammoNames) {
+            AmmoType ammo = AmmoType.findPredefined(ammoName);
+            if (ammo == null) {
+                BallisticLog.warn(TAG, "Unknown ammo '" + ammoName + "' in " + fileName);
+                continue;
+            }
+            ammo.setDragCurve(curve);
+        }
+    }
+
+    /**
+     * Разбирает файл кривой
+     * @param ammoNames сюда добавляются имена боеприпасов из заголовка
+     */
+    static DragCurve parse(InputStream stream, List<String> ammoNames) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        double scale = 1.0;
+        double[] mach = new double[64];
+        double[] cd = new double[64];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            if (equals >= 0) {
+                String key = line.substring(0, equals).trim();
+                String value = line.substring(equals + 1).trim();
+                if (key.equals("ammo")) {
+                    ammoNames.add(value);
+                } else if (key.equals("scale")) {
+                    scale = Double.parseDouble(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown key: " + key);
+                }
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected 'mach cd': " + line);
+            }
+            if (count == mach.length) {
+                mach = Arrays.copyOf(mach, count * 2);
+                cd = Arrays.copyOf(cd, count * 2);
+            }
+            mach[count] = Double.parseDouble(parts[0]);
+            cd[count] = Double.parseDouble(parts[1]);
+            count++;
+        }
+        return fromPoints(Arrays.copyOf(mach, count), Arrays.copyOf(cd, count), scale);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.mortarcalculator;
+
+/**
+ * Сетка высот в плоском массиве short: отсчет * unit = высота в метрах.
+ * Строки хранятся подряд, индекс отсчета = y * width + x.
+ * Занимает 2 байта на отсчет против 4 у ARGB_8888 и читается без обращения к Bitmap.
+ */
+final class ElevationGrid {
+    final int width;
+    final int height;
+    final double unit; // метров на единицу отсчета
+    private final short[] samples;
+
+    ElevationGrid(int width, int height, double unit, short[] samples) {
+        if (samples.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " samples, got " + samples.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.unit = unit;
+        this.samples = samples;
+    }
+
+    /**
+     * Высота в узле сетки в метрах
+     */
+    double sample(int x, int y) {
+        return samples[y * width + x] * unit;
+    }
+
+    /**
+     * Отсчет в узле сетки без перевода в метры
+     */
+    int raw(int x, int y) {
+        return samples[y * width + x];
+    }
+
+    /**
+     * Билинейная интерполяция высоты в метрах
+     * @param xd координата столбца от 0 до width - 1
+     * @param yd координата строки от 0 до height - 1
+     */
+    double bilinear(double xd, double yd) {
+        int x0 = (int) xd;
+        int y0 = (int) yd;
+        int x1 = Math.min(x0 + 1, width - 1);
+        int y1 = Math.min(y0 + 1, height - 1);
+        double wx = xd - x0;
+        double wy = yd - y0;
+
+        int row0 = y0 * width;
+        int row1 = y1 * width;
+        double h0 = samples[row0 + x0] * (1 - wx) + samples[row0 + x1] * wx;
+        double h1 = samples[row1 + x0] * (1 - wx) + samples[row1 + x1] * wx;
+        return (h0 * (1 - wy) + h1 * wy) * unit;
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.mortarcalculator;
+
+/**
+ * Пирамида минимумов и максимумов высот над {@link ElevationGrid}.
+ *
+ * Нижний уровень хранит минимум и максимум отсчетов для блоков 4×4 ячейки,
+ * каждый следующий - для блоков 2×2 предыдущего, до одного узла на всю сетку.
+ * Билинейная поверхность внутри блока не выходит за пределы его отсчетов,
+ * поэтому отрезок, проходящий над максимумом блока, отбрасывается целиком,
+ * а отрезок ниже минимума сразу считается перекрытым. Запрос спускается
+ * только в блоки, где отрезок близок к рельефу: O(log n) для открытой
+ * местности вместо просмотра каждой ячейки вдоль пути.
+ *
+ * В блоке нижнего уровня запас считается точно: вдоль отрезка билинейная
+ * поверхность ячейки - квадратичная функция параметра, и ее наименьший
+ * запас лежит либо на входе в ячейку или выходе из нее, либо в вершине
+ * параболы. Гребни между отсчетами поэтому не пропускаются.
+ *
+ * Координаты - столбец и строка сетки (от 0 до width - 1 и height - 1),
+ * высоты - в метрах.
+ */
+final class ElevationPyramid {
+    private static final int BLOCK_SHIFT = 2; // нижний уровень: блоки 4×4 ячейки
+
+    private final ElevationGrid grid;
+    private final int cellsX; // ячеек по горизонтали
+    private final int cellsY; // ячеек по вертикали
+    private final int[] levelWidth;
+    private final int[] levelHeight;
+    private final short[][] min; // [уровень][строка * ширина + столбец], в отсчетах сетки
+    private final short[][] max;
+
+    ElevationPyramid(ElevationGrid grid) {
+        this.grid = grid;
+        this.cellsX = Math.max(1, grid.width - 1);
+        this.cellsY = Math.max(1, grid.height - 1);
+
+        int levels = 1;
+        int w = blocks(cellsX, BLOCK_SHIFT);
+        int h = blocks(cellsY, BLOCK_SHIFT);
+        while (w > 1 || h > 1) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+            levels++;
+        }
+        levelWidth = new int[levels];
+        levelHeight = new int[levels];
+        min = new short[levels][];
+        max = new short[levels][];
+
+        buildLeaves();
+        for (int level = 1; level < levels; level++) {
+            buildLevel(level);
+        }
+    }
+
+    private static int blocks(int cells, int shift) {
+        return (cells + (1 << shift) - 1) >> shift;
+    }
+
+    private void buildLeaves() {
+        int w = blocks(cellsX, BLOCK_SHIFT);
+        int h = blocks(cellsY, BLOCK_SHIFT);
+        levelWidth[0] = w;
+        levelHeight[0] = h;
+        min[0] = new short[w * h];
+        max[0] = new short[w * h];
+        int size = 1 << BLOCK_SHIFT;
+        for (int by = 0; by < h; by++) {
+            int y0 = by * size;
+            int y1 = Math.min(y0 + size, grid.height - 1);
+            for (int bx = 0; bx < w; bx++) {
+                int x0 = bx * size;
+                int x1 = Math.min(x0 + size, grid.width - 1);
+                int lo = Integer.MAX_VALUE;
+                int hi = Integer.MIN_VALUE;
+                // Блок включает отсчеты на обеих границах своих ячеек
+                for (int y = y0; y <= y1; y++) {
+                    for (int x = x0; x <= x1; x++) {
+                        int value = grid.raw(x, y);
+                        lo = Math.min(lo, value);
+                        hi = Math.max(hi, value);
+                    }
+                }
+                min[0][by * w + bx] = (short) lo;
+                max[0][by * w + bx] = (short) hi;
+            }
+        }
+    }
+
+    private void buildLevel(int level) {
+        int cw = levelWidth[level - 1];
+        int ch = levelHeight[level - 1];
+        int w = (cw + 1) / 2;
+        int h = (ch + 1) / 2;
+        levelWidth[level] = w;
+        levelHeight[level] = h;
+        short[] childMin = min[level - 1];
+        short[] childMax = max[level - 1];
+        short[] levelMin = new short[w * h];
+        short[] levelMax = new short[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int lo = Integer.MAX_VALUE;
+                int hi = Integer.MIN_VALUE;
+                for (int dy = 0; dy < 2; dy++) {
+                    int cy = 2 * y + dy;
+                    if (cy >= ch) break;
+                    for (int dx = 0; dx < 2; dx++) {
+                        int cx = 2 * x + dx;
+                        if (cx >= cw) break;
+                        lo = Math.min(lo, childMin[cy * cw + cx]);
+                        hi = Math.max(hi, childMax[cy * cw + cx]);
+                    }
+                }
+                levelMin[y * w + x] = (short) lo;
+                levelMax[y * w + x] = (short) hi;
+            }
+        }
+        min[level] = levelMin;
+        max[level] = levelMax;
+    }
+
+    /**
+     * Проходит ли отрезок над рельефом на всем протяжении
+     */
+    boolean lineOfSight(double x0, double y0, double z0, double x1, double y1, double z1) {
+        // Точное значение запаса не нужно: блоки выше отрезка отбрасываются сразу
+        return clearance(x0, y0, z0, x1, y1, z1, Double.MIN_VALUE, 0.0) > 0;
+    }
+
+    /**
+     * Наименьшее превышение отрезка над рельефом в метрах. Если отрезок
+     * уходит под рельеф, результат отрицательный и является оценкой сверху.
+     */
+    double minClearance(double x0, double y0, double z0, double x1, double y1, double z1) {
+        return clearance(x0, y0, z0, x1, y1, z1, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Поиск с отсечением: блоки, которые не могут уменьшить запас ниже
+     * найденного (или ниже bound), пропускаются; поиск прекращается,
+     * как только запас не больше stopAt
+     * @param bound начальная верхняя граница запаса
+     */
+    private double clearance(double x0, double y0, double z0, double x1, double y1, double z1,
+                             double bound, double stopAt) {
+        Query query = new Query(x0, y0, z0, x1, y1, z1, bound, stopAt);
+        int top = levelWidth.length - 1;
+        visit(query, top, 0, 0);
+        return query.best;
+    }
+
+    private static final class Query {
+        final double x0, y0, z0, dx, dy, dz;
+        final double stopAt;
+        double best; // наименьший найденный запас
+        double ta, tb; // диапазон параметра отрезка внутри текущего блока
+
+        Query(double x0, double y0, double z0, double x1, double y1, double z1, double bound, double stopAt) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.z0 = z0;
+            this.dx = x1 - x0;
+            this.dy = y1 - y0;
+            this.dz = z1 - z0;
+            this.best = bound;
+            this.stopAt = stopAt;
+        }
+
+        boolean done() {
+            return best <= stopAt;
+        }
+
+        /**
+         * Сужает [ta, tb] до части, где p0 + dp * t лежит в [lo, hi]
+         * @return false, если диапазон пуст
+         */
+        boolean clip(double p0, double dp, double lo, double hi) {
+            if (dp == 0) {
+                return p0 >= lo && p0 <= hi;
+            }
+            double t0 = (lo - p0) / dp;
+            double t1 = (hi - p0) / dp;
+            if (t0 > t1) {
+                double swap = t0;
+                t0 = t1;
+                t1 = swap;
+            }
+            ta = Math.max(ta, t0);
+            tb = Math.min(tb, t1);
+            return ta <= tb;
+        }
+    }
+
+    private void visit(Query query, int level, int bx, int by) {
+        if (query.done()) {
+            return;
+        }
+        int shift = level + BLOCK_SHIFT;
+        double left = bx << shift;
+        double top = by << shift;
+        double right = Math.min((bx + 1) << shift, cellsX);
+        double bottom = Math.min((by + 1) << shift, cellsY);
+
+        // Часть отрезка внутри блока (отсечение Лианга–Барски)
+        query.ta = 0.0;
+        query.tb = 1.0;
+        if (!query.clip(query.x0, query.dx, left, right) || !query.clip(query.y0, query.dy, top, bottom)) {
+            return;
+        }
+        double ta = query.ta;
+        double tb = query.tb;
+
+        int index = by * levelWidth[level] + bx;
+        double unit = grid.unit;
+        double za = query.z0 + query.dz * ta;
+        double zb = query.z0 + query.dz * tb;
+        double lowest = Math.min(za, zb);
+        double highest = Math.max(za, zb);
+        double blockMax = max[level][index] * unit;
+        double blockMin = min[level][index] * unit;
+
+        if (lowest - blockMax >= query.best) {
+            return; // блок не может уменьшить запас
+        }
+        if (highest < blockMin) {
+            // Весь отрезок внутри блока ниже рельефа
+            query.best = Math.min(query.best, highest - blockMin);
+            return;
+        }
+        if (level == 0) {
+            scanLeaf(query, bx, by, ta, tb);
+            return;
+        }
+        // Дочерние блоки обходим по направлению отрезка: ближние к началу
+        // раньше дают оценку запаса и раньше находят перекрытие
+        int childLevel = level - 1;
+        int cw = levelWidth[childLevel];
+        int ch = levelHeight[childLevel];
+        int firstX = query.dx >= 0 ? 0 : 1;
+        int firstY = query.dy >= 0 ? 0 : 1;
+        for (int i = 0; i < 2; i++) {
+            int cy = 2 * by + (firstY ^ i);
+            if (cy >= ch) continue;
+            for (int j = 0; j < 2; j++) {
+                int cx = 2 * bx + (firstX ^ j);
+                if (cx >= cw) continue;
+                visit(query, childLevel, cx, cy);
+            }
+        }
+    }
+
+    /**
+     * Точный наименьший запас части отрезка [ta, tb] над ячейками блока нижнего уровня
+     */
+    private void scanLeaf(Query query, int bx, int by, double ta, double tb) {
+        int size = 1 << BLOCK_SHIFT;
+        int firstX = bx * size;
+        int firstY = by * size;
+        int lastX = Math.min(firstX + size, cellsX) - 1;
+        int lastY = Math.min(firstY + size, cellsY) - 1;
+        for (int cy = firstY; cy <= lastY; cy++) {
+            for (int cx = firstX; cx <= lastX; cx++) {
+                query.ta = ta;
+                query.tb = tb;
+                if (!query.clip(query.x0, query.dx, cx, cx + 1) || !query.clip(query.y0, query.dy, cy, cy + 1)) {
+                    continue;
+                }
+                scanCell(query, cx, cy, query.ta, query.tb);
+                if (query.done()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Запас над одной ячейкой. Вдоль отрезка высота ячейки
+     * h(t) = a + b·t + c·t², запас z0 + dz·t - h(t) - парабола, поэтому
+     * достаточно концов [t0, t1] и вершины, если она внутри
+     */
+    private void scanCell(Query query, int cx, int cy, double t0, double t1) {
+        int x1 = Math.min(cx + 1, grid.width - 1);
+        int y1 = Math.min(cy + 1, grid.height - 1);
+        double h00 = grid.sample(cx, cy);
+        double h10 = grid.sample(x1, cy);
+        double h01 = grid.sample(cx, y1);
+        double h11 = grid.sample(x1, y1);
+        // Координаты внутри ячейки: fx = px + dx·t, fy = py + dy·t
+        double px = query.x0 - cx;
+        double py = query.y0 - cy;
+        double k = h00 - h10 - h01 + h11;
+        double a = h00 + (h10 - h00) * px + (h01 - h00) * py + k * px * py;
+        double b = (h10 - h00) * query.dx + (h01 - h00) * query.dy + k * (px * query.dy + py * query.dx);
+        double c = k * query.dx * query.dy;
+
+        double best = Math.min(cellClearance(query, a, b, c, t0), cellClearance(query, a, b, c, t1));
+        if (c < 0) {
+            // Высота выпукла вверх: наименьший запас может быть в вершине параболы
+            double vertex = (query.dz - b) / (2 * c);
+            if (vertex > t0 && vertex < t1) {
+                best = Math.min(best, cellClearance(query, a, b, c, vertex));
+            }
+        }
+        query.best = Math.min(query.best, best);
+    }
+
+    private static double cellClearance(Query query, double a, double b, double c, double t) {
+        return query.z0 + query.dz * t - (a + (b + c * t) * t);
+    }
+}
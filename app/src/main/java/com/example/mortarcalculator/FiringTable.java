@@ -0,0 +1,349 @@
+package com.example.mortarcalculator;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Таблица стрельбы для пары миномет/боеприпас при стандартной атмосфере.
+ * Хранит на регулярной сетке (дальность, превышение цели) угол возвышения,
+ * время полета и максимальную высоту для навесной и настильной траекторий.
+ * Таблица читается из отображенного в память файла {@link FiringTableFile}:
+ * сначала из assets (генерируется при сборке), затем из кэша приложения.
+ * Если готового файла нет, таблица строится в фоне и сохраняется в кэш.
+ */
+public final class FiringTable {
+    private static final String TAG = "FiringTable";
+
+    public static final int HIGH = 0; // навесная траектория
+    public static final int LOW = 1; // настильная траектория
+
+    static final double RANGE_STEP = 25.0; // шаг сетки по дальности в метрах
+    static final double HEIGHT_MIN = -200.0; // минимальное превышение цели в метрах
+    static final double HEIGHT_STEP = 20.0; // шаг сетки по превышению в метрах
+    static final int HEIGHT_COUNT = 21; // от -200 до +200 метров
+    private static final double ANGLE_STEP = 0.25; // шаг перебора углов при построении
+
+    // Поля ячейки и их количество в файле
+    private static final int FIELD_ANGLE = 0;
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_HEIGHT = 2;
+    private static final int FIELD_COUNT = 3;
+    static final int VALUES_PER_CELL = 2 * FIELD_COUNT;
+
+    private static volatile AssetManager assets;
+    private static volatile File cacheDir;
+
+    // Стандартная атмосфера: 15°C, 1013.25 гПа, без ветра
+    static final BallisticCalculator.WeatherConditions STANDARD_WEATHER =
+        new BallisticCalculator.WeatherConditions(15.0, 1013.25, 50.0, 0.0, 0.0);
+
+    private static final Map<String, FiringTable> TABLES = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> PENDING = new ConcurrentHashMap<>();
+    private static final ExecutorService GENERATOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FiringTableGenerator");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final double rangeMin; // дальность первого столбца сетки
+    final double rangeStep; // шаг по дальности
+    final int rangeCount; // количество столбцов по дальности
+    final double heightMin; // превышение первой строки
+    final double heightStep; // шаг по превышению
+    final int heightCount; // количество строк по превышению
+    private final int cellCount;
+    private final ByteBuffer buffer; // весь файл, включая заголовок
+    // Значения сетки: индекс [ветвь][поле][высота * rangeCount + дальность], NaN если цель недостижима
+    private final FloatBuffer data;
+
+    /**
+     * Результат интерполяции по таблице
+     */
+    public static final class Entry {
+        public double angle; // угол возвышения в градусах
+        public double timeOfFlight; // время полета в секундах
+        public double maxHeight; // максимальная высота в метрах
+        public double anglePerMeter; // производная угла по дальности, °/м
+    }
+
+    /**
+     * Оборачивает буфер файла таблицы (заголовок должен быть проверен)
+     */
+    FiringTable(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer = buffer;
+        this.rangeMin = buffer.getDouble(FiringTableFile.OFFSET_RANGE_MIN);
+        this.rangeStep = buffer.getDouble(FiringTableFile.OFFSET_RANGE_STEP);
+        this.heightMin = buffer.getDouble(FiringTableFile.OFFSET_HEIGHT_MIN);
+        this.heightStep = buffer.getDouble(FiringTableFile.OFFSET_HEIGHT_STEP);
+        this.rangeCount = buffer.getInt(FiringTableFile.OFFSET_RANGE_COUNT);
+        this.heightCount = buffer.getInt(FiringTableFile.OFFSET_HEIGHT_COUNT);
+        this.cellCount = rangeCount * heightCount;
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(FiringTableFile.HEADER_SIZE);
+        this.data = view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    /**
+     * Подключает таблицы к assets и каталогу кэша приложения
+     */
+    public static void init(Context context) {
+        assets = context.getApplicationContext().getAssets();
+        cacheDir = new File(context.getApplicationContext().getFilesDir(), FiringTableFile.ASSET_DIR);
+    }
+
+    static String key(MortarType mortar, AmmoType ammo) {
+        return mortar.getName() + "|" + ammo.getName();
+    }
+
+    /**
+     * Возвращает готовую таблицу или null, если она еще строится.
+     * При первом обращении запускает построение в фоне.
+     */
+    public static FiringTable get(MortarType mortar, AmmoType ammo) {
+        String key = key(mortar, ammo);
+        FiringTable table = TABLES.get(key);
+        if (table == null) {
+            prefetch(mortar, ammo);
+        }
+        return table;
+    }
+
+    /**
+     * Запускает фоновое построение таблицы, если она еще не готова
+     */
+    public static void prefetch(MortarType mortar, AmmoType ammo) {
+        String key = key(mortar, ammo);
+        if (TABLES.containsKey(key) || PENDING.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        GENERATOR.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                FiringTable table = load(mortar, ammo);
+                TABLES.put(key, table);
+                if (BallisticLog.DEBUG) {
+                    BallisticLog.debug(TAG, "Firing table for %s ready in %.0f ms (%d x %d cells)",
+                        key, (System.nanoTime() - start) / 1e6, table.rangeCount, table.heightCount);
+                }
+            } finally {
+                PENDING.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Открывает таблицу из assets или кэша, а при отсутствии строит и сохраняет в кэш
+     */
+    private static FiringTable load(MortarType mortar, AmmoType ammo) {
+        String name = FiringTableFile.fileName(mortar, ammo);
+        int paramsHash = FiringTableFile.paramsHash(mortar, ammo);
+        AssetManager assetManager = assets;
+        File dir = cacheDir;
+        try {
+            if (assetManager != null) {
+                ByteBuffer mapped = FiringTableFile.mapAsset(assetManager, name);
+                if (mapped != null && FiringTableFile.isValid(mapped, paramsHash, VALUES_PER_CELL)) {
+                    return new FiringTable(mapped);
+                }
+            }
+            if (dir != null) {
+                ByteBuffer mapped = FiringTableFile.mapFile(new File(dir, name));
+                if (mapped != null && FiringTableFile.isValid(mapped, paramsHash, VALUES_PER_CELL)) {
+                    return new FiringTable(mapped);
+                }
+            }
+        } catch (IOException e) {
+            BallisticLog.warn(TAG, "Cannot map firing table " + name + ": " + e.getMessage());
+        }
+
+        FiringTable table = generate(mortar, ammo);
+        if (dir != null) {
+            try {
+                FiringTableFile.write(table.buffer, new File(dir, name));
+            } catch (IOException e) {
+                BallisticLog.warn(TAG, "Cannot cache firing table " + name + ": " + e.getMessage());
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Содержимое файла таблицы для записи на диск
+     */
+    ByteBuffer buffer() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * Запускает построение таблиц для всех предопределенных минометов и боеприпасов
+     */
+    public static void prefetchAll() {
+        for (MortarType mortar : MortarType.PREDEFINED_MORTARS) {
+            for (AmmoType ammo : ammoFor(mortar)) {
+                prefetch(mortar, ammo);
+            }
+        }
+    }
+
+    /**
+     * Боеприпасы, совместимые с минометом (по тому же правилу, что и в GeoPoint)
+     */
+    static AmmoType[] ammoFor(MortarType mortar) {
+        return mortar.getCaliber() == 82 ? AmmoType.PREDEFINED_AMMO_82MM : AmmoType.PREDEFINED_AMMO_120MM;
+    }
+
+    /**
+     * Строит таблицу: для каждого превышения перебирает углы возвышения,
+     * затем обращает зависимость дальности от угла отдельно на каждой ветви.
+     */
+    static FiringTable generate(MortarType mortar, AmmoType ammo) {
+        TrajectoryIntegrator.Projectile projectile = new TrajectoryIntegrator.Projectile(mortar, ammo);
+        double rangeMin = mortar.getMinRange();
+        int rangeCount = (int) Math.floor((mortar.getMaxRange() * 1.2 - rangeMin) / RANGE_STEP) + 1;
+        FiringTable table = new FiringTable(FiringTableFile.allocate(
+            FiringTableFile.paramsHash(mortar, ammo),
+            rangeMin, RANGE_STEP, rangeCount, HEIGHT_MIN, HEIGHT_STEP, HEIGHT_COUNT, VALUES_PER_CELL));
+
+        int angleCount = (int) Math.floor((mortar.getMaxElevation() - mortar.getMinElevation()) / ANGLE_STEP) + 1;
+        double[] sweepAngle = new double[angleCount];
+        double[] sweepRange = new double[angleCount];
+        double[] sweepTime = new double[angleCount];
+        double[] sweepHeight = new double[angleCount];
+        TrajectoryIntegrator.Workspace workspace = TrajectoryIntegrator.workspace();
+
+        for (int row = 0; row < HEIGHT_COUNT; row++) {
+            double heightDiff = table.heightMin + row * table.heightStep;
+            int peak = -1;
+            for (int i = 0; i < angleCount; i++) {
+                double angle = mortar.getMinElevation() + i * ANGLE_STEP;
+                TrajectoryIntegrator.integrate(BallisticCalculator.IntegratorMode.DORMAND_PRINCE,
+                    projectile, STANDARD_WEATHER, angle, 0.0, heightDiff, workspace);
+                sweepAngle[i] = angle;
+                sweepRange[i] = workspace.hit ? workspace.impactX : Double.NaN;
+                sweepTime[i] = workspace.time;
+                sweepHeight[i] = workspace.maxHeight * 0.6; // тот же масштаб, что в BallisticCalculator
+                if (workspace.hit && (peak < 0 || sweepRange[i] > sweepRange[peak])) {
+                    peak = i;
+                }
+            }
+
+            int offset = row * rangeCount;
+            for (int col = 0; col < rangeCount; col++) {
+                double range = table.rangeMin + col * table.rangeStep;
+                table.fillCell(HIGH, offset + col, range, peak, angleCount - 1,
+                    sweepAngle, sweepRange, sweepTime, sweepHeight);
+                table.fillCell(LOW, offset + col, range, 0, peak,
+                    sweepAngle, sweepRange, sweepTime, sweepHeight);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Заполняет ячейку ветви линейной интерполяцией по перебору углов [from, to]
+     */
+    private void fillCell(int branch, int cell, double range, int from, int to,
+                          double[] sweepAngle, double[] sweepRange,
+                          double[] sweepTime, double[] sweepHeight) {
+        put(branch, FIELD_ANGLE, cell, Float.NaN);
+        put(branch, FIELD_TIME, cell, Float.NaN);
+        put(branch, FIELD_HEIGHT, cell, Float.NaN);
+        if (from < 0) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            double r0 = sweepRange[i];
+            double r1 = sweepRange[i + 1];
+            if (Double.isNaN(r0) || Double.isNaN(r1) || r0 == r1) {
+                continue;
+            }
+            if ((range - r0) * (range - r1) <= 0) {
+                double w = (range - r0) / (r1 - r0);
+                put(branch, FIELD_ANGLE, cell, sweepAngle[i] + w * (sweepAngle[i + 1] - sweepAngle[i]));
+                put(branch, FIELD_TIME, cell, sweepTime[i] + w * (sweepTime[i + 1] - sweepTime[i]));
+                put(branch, FIELD_HEIGHT, cell, sweepHeight[i] + w * (sweepHeight[i + 1] - sweepHeight[i]));
+                return;
+            }
+        }
+    }
+
+    private int index(int branch, int field, int cell) {
+        return (branch * FIELD_COUNT + field) * cellCount + cell;
+    }
+
+    private void put(int branch, int field, int cell, double value) {
+        data.put(index(branch, field, cell), (float) value);
+    }
+
+    private float get(int branch, int field, int cell) {
+        return data.get(index(branch, field, cell));
+    }
+
+    /**
+     * Проверяет, попадает ли точка в сетку таблицы
+     */
+    public boolean covers(double range, double heightDiff) {
+        double col = (range - rangeMin) / rangeStep;
+        double row = (heightDiff - heightMin) / heightStep;
+        return col >= 0 && row >= 0 && col <= rangeCount - 1 && row <= heightCount - 1;
+    }
+
+    /**
+     * Билинейная интерполяция по сетке
+     * @param branch {@link #HIGH} или {@link #LOW}
+     * @param range дальность в метрах
+     * @param heightDiff превышение цели в метрах
+     * @param out результат
+     * @return false, если точка вне сетки или цель недостижима на этой ветви
+     */
+    public boolean lookup(int branch, double range, double heightDiff, Entry out) {
+        if (!covers(range, heightDiff)) {
+            return false;
+        }
+        double col = (range - rangeMin) / rangeStep;
+        double row = (heightDiff - heightMin) / heightStep;
+        int c0 = Math.min((int) col, rangeCount - 2);
+        int r0 = Math.min((int) row, heightCount - 2);
+        double wc = col - c0;
+        double wr = row - r0;
+        int i00 = r0 * rangeCount + c0;
+        int i10 = i00 + 1;
+        int i01 = i00 + rangeCount;
+        int i11 = i01 + 1;
+
+        float a00 = get(branch, FIELD_ANGLE, i00);
+        float a10 = get(branch, FIELD_ANGLE, i10);
+        float a01 = get(branch, FIELD_ANGLE, i01);
+        float a11 = get(branch, FIELD_ANGLE, i11);
+        if (Float.isNaN(a00) || Float.isNaN(a10) || Float.isNaN(a01) || Float.isNaN(a11)) {
+            return false;
+        }
+        out.angle = bilinear(a00, a10, a01, a11, wc, wr);
+        out.timeOfFlight = bilinear(get(branch, FIELD_TIME, i00), get(branch, FIELD_TIME, i10),
+            get(branch, FIELD_TIME, i01), get(branch, FIELD_TIME, i11), wc, wr);
+        out.maxHeight = bilinear(get(branch, FIELD_HEIGHT, i00), get(branch, FIELD_HEIGHT, i10),
+            get(branch, FIELD_HEIGHT, i01), get(branch, FIELD_HEIGHT, i11), wc, wr);
+        // Производная угла по дальности вдоль строки, нужна для поправок на метеоусловия
+        double near = (1 - wr) * a00 + wr * a01;
+        double far = (1 - wr) * a10 + wr * a11;
+        out.anglePerMeter = (far - near) / rangeStep;
+        return true;
+    }
+
+    private static double bilinear(float v00, float v10, float v01, float v11, double wc, double wr) {
+        double top = v00 + wc * (v10 - v00);
+        double bottom = v01 + wc * (v11 - v01);
+        return top + wr * (bottom - top);
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.mortarcalculator;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Двоичный формат файла таблицы стрельбы (.ftab).
+ *
+ * Заголовок 64 байта, little-endian:
+ * <pre>
+ *  0  int    MAGIC ('FTAB')
+ *  4  int    версия формата
+ *  8  int    версия физической модели ({@link BallisticCalculator#MODEL_VERSION})
+ * 12  int    хэш параметров миномета и боеприпаса
+ * 16  double дальность первого столбца, м
+ * 24  double шаг по дальности, м
+ * 32  double минимальное превышение, м
+ * 40  double шаг по превышению, м
+ * 48  int    количество столбцов по дальности
+ * 52  int    количество строк по превышению
+ * </pre>
+ * Далее float32 массивы [ветвь][поле][строка][столбец] без сжатия,
+ * поэтому файл открывается через mmap и читается без разбора в объекты.
+ * Файлы в assets должны храниться без сжатия (noCompress 'ftab' в build.gradle).
+ */
+final class FiringTableFile {
+    static final int MAGIC = 0x42415446; // 'FTAB' в little-endian
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final String ASSET_DIR = "firing_tables";
+    static final String EXTENSION = ".ftab";
+
+    static final int OFFSET_MODEL_VERSION = 8;
+    static final int OFFSET_PARAMS_HASH = 12;
+    static final int OFFSET_RANGE_MIN = 16;
+    static final int OFFSET_RANGE_STEP = 24;
+    static final int OFFSET_HEIGHT_MIN = 32;
+    static final int OFFSET_HEIGHT_STEP = 40;
+    static final int OFFSET_RANGE_COUNT = 48;
+    static final int OFFSET_HEIGHT_COUNT = 52;
+
+    private FiringTableFile() {}
+
+    /**
+     * Выделяет буфер под таблицу и заполняет заголовок
+     */
+    static ByteBuffer allocate(int paramsHash, double rangeMin, double rangeStep, int rangeCount,
+                               double heightMin, double heightStep, int heightCount, int valuesPerCell) {
+        int size = HEADER_SIZE + rangeCount * heightCount * valuesPerCell * 4;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(OFFSET_MODEL_VERSION, BallisticCalculator.MODEL_VERSION);
+        buffer.putInt(OFFSET_PARAMS_HASH, paramsHash);
+        buffer.putDouble(OFFSET_RANGE_MIN, rangeMin);
+        buffer.putDouble(OFFSET_RANGE_STEP, rangeStep);
+        buffer.putDouble(OFFSET_HEIGHT_MIN, heightMin);
+        buffer.putDouble(OFFSET_HEIGHT_STEP, heightStep);
+        buffer.putInt(OFFSET_RANGE_COUNT, rangeCount);
+        buffer.putInt(OFFSET_HEIGHT_COUNT, heightCount);
+        return buffer;
+    }
+
+    /**
+     * Проверяет заголовок: формат, версию модели, параметры и размер данных
+     */
+    static boolean isValid(ByteBuffer buffer, int paramsHash, int valuesPerCell) {
+        if (buffer.capacity() < HEADER_SIZE) {
+            return false;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != FORMAT_VERSION
+                || buffer.getInt(OFFSET_MODEL_VERSION) != BallisticCalculator.MODEL_VERSION
+                || buffer.getInt(OFFSET_PARAMS_HASH) != paramsHash) {
+            return false;
+        }
+        long cells = (long) buffer.getInt(OFFSET_RANGE_COUNT) * buffer.getInt(OFFSET_HEIGHT_COUNT);
+        return cells > 0 && buffer.capacity() >= HEADER_SIZE + cells * valuesPerCell * 4;
+    }
+
+    /**
+     * Отображает файл из assets в память. Возвращает null, если файла нет.
+     */
+    static ByteBuffer mapAsset(AssetManager assets, String name) throws IOException {
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = assets.openFd(ASSET_DIR + "/" + name);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try (FileInputStream stream = new FileInputStream(descriptor.getFileDescriptor());
+             FileChannel channel = stream.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                descriptor.getStartOffset(), descriptor.getLength());
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Отображает файл в память. Возвращает null, если файла нет.
+     */
+    static ByteBuffer mapFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Записывает таблицу во временный файл и атомарно переименовывает
+     */
+    static void write(ByteBuffer buffer, File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp);
+             FileChannel channel = stream.getChannel()) {
+            ByteBuffer data = buffer.duplicate();
+            data.clear();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Имя файла для пары миномет/боеприпас: индексы в предопределенных списках
+     */
+    static String fileName(MortarType mortar, AmmoType ammo) {
+        int mortarIndex = indexOf(MortarType.PREDEFINED_MORTARS, mortar);
+        int ammoIndex = indexOf(FiringTable.ammoFor(mortar), ammo);
+        if (mortarIndex < 0 || ammoIndex < 0) {
+            return "custom_" + Integer.toHexString(paramsHash(mortar, ammo)) + EXTENSION;
+        }
+        return "mortar" + mortarIndex + "_ammo" + ammoIndex + EXTENSION;
+    }
+
+    /**
+     * Хэш параметров, от которых зависит содержимое таблицы
+     */
+    static int paramsHash(MortarType mortar, AmmoType ammo) {
+        int hash = 17;
+        hash = 31 * hash + mortar.getCaliber();
+        hash = 31 * hash + Double.valueOf(mortar.getMuzzleVelocity()).hashCode();
+        hash = 31 * hash + Double.valueOf(mortar.getMinRange()).hashCode();
+        hash = 31 * hash + Double.valueOf(mortar.getMaxRange()).hashCode();
+        hash = 31 * hash + Double.valueOf(mortar.getMinElevation()).hashCode();
+        hash = 31 * hash + Double.valueOf(mortar.getMaxElevation()).hashCode();
+        hash = 31 * hash + Double.valueOf(ammo.getWeight()).hashCode();
+        hash = 31 * hash + ammo.getDragCurve().hashCode();
+        return hash;
+    }
+
+    private static int indexOf(Object[] items, Object item) {
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
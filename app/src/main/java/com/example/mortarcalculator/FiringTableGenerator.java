@@ -0,0 +1,36 @@
+package com.example.mortarcalculator;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Генератор таблиц стрельбы для assets. Запускается при сборке задачей
+ * generateFiringTables из app/build.gradle.
+ */
+public final class FiringTableGenerator {
+    private FiringTableGenerator() {}
+
+    /**
+     * @param args каталог для файлов .ftab и, необязательно, каталог кривых сопротивления
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 2) {
+            throw new IllegalArgumentException("Usage: FiringTableGenerator <output dir> [drag curves dir]");
+        }
+        File outputDir = new File(args[0]);
+        if (args.length == 2) {
+            DragCurve.loadDirectory(new File(args[1]));
+        }
+        for (MortarType mortar : MortarType.PREDEFINED_MORTARS) {
+            for (AmmoType ammo : FiringTable.ammoFor(mortar)) {
+                long start = System.nanoTime();
+                FiringTable table = FiringTable.generate(mortar, ammo);
+                File file = new File(outputDir, FiringTableFile.fileName(mortar, ammo));
+                FiringTableFile.write(table.buffer(), file);
+                System.out.println(String.format("%s: %s (%d bytes, %.0f ms)",
+                    FiringTable.key(mortar, ammo), file.getName(), file.length(),
+                    (System.nanoTime() - start) / 1e6));
+            }
+        }
+    }
+}
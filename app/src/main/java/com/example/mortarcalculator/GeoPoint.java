@@ -1,9 +1,15 @@
 package com.example.mortarcalculator;
 
+import java.util.concurrent.CompletableFuture;
+
 public class GeoPoint {
     private final double latitude;
     private final double longitude;
-    private double elevation;
+    private volatile double elevation;
+    // Высота точки: завершен сразу для заданной высоты, для точек на местности
+    // завершается, когда рельеф прочитан в фоне
+    private volatile CompletableFuture<Double> elevationFuture;
+    private boolean elevationSet; // высота задана явно и не перезаписывается рельефом
     private MortarType mortarType; // только для точек минометов
     private AmmoType ammoType; // тип боеприпаса
 
@@ -15,10 +21,32 @@ public class GeoPoint {
         this.latitude = latitude;
         this.longitude = longitude;
         this.elevation = elevation;
+        this.elevationFuture = CompletableFuture.completedFuture(elevation);
+        this.elevationSet = true;
         this.mortarType = MortarType.PREDEFINED_MORTARS[0]; // По умолчанию первый тип
         this.ammoType = AmmoType.PREDEFINED_AMMO_82MM[0]; // По умолчанию первый тип боеприпаса
     }
 
+    /**
+     * Точка на поверхности местности: высота берется из рельефа в фоне
+     * и кэшируется в точке. До завершения чтения getElevation() возвращает 0.
+     */
+    public static GeoPoint onTerrain(double latitude, double longitude) {
+        GeoPoint point = new GeoPoint(latitude, longitude, 0.0);
+        point.elevationSet = false;
+        point.elevationFuture = DSMReader.getElevationAsync(latitude, longitude)
+            .thenApply(point::applySampledElevation);
+        return point;
+    }
+
+    private synchronized double applySampledElevation(double value) {
+        // Высота, введенная вручную раньше завершения чтения, имеет приоритет
+        if (!elevationSet) {
+            elevation = value;
+        }
+        return elevation;
+    }
+
     public double getLatitude() {
         return latitude;
     }
@@ -31,8 +59,18 @@ public class GeoPoint {
         return elevation;
     }
 
-    public void setElevation(double elevation) {
+    public synchronized void setElevation(double elevation) {
         this.elevation = elevation;
+        this.elevationSet = true;
+        this.elevationFuture = CompletableFuture.completedFuture(elevation);
+    }
+
+    /**
+     * Высота точки, когда она станет известна. Расчет ждет это значение
+     * в потоке пула, а не в UI-потоке.
+     */
+    public CompletableFuture<Double> elevationAsync() {
+        return elevationFuture;
     }
 
     public MortarType getMortarType() {
@@ -1,154 +1,240 @@
-package com.example.mortarcalculator;
-
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.os.Bundle;
-import android.util.Log;
-import android.view.View;
-import android.view.WindowManager;
-import android.widget.Button;
-import android.widget.ImageView;
-import android.widget.TextView;
-import androidx.appcompat.app.AppCompatActivity;
-import java.io.IOException;
-import java.io.InputStream;
-
-public class MainActivity extends AppCompatActivity 
-        implements MortarSettingsDialog.OnSettingsChangedListener,
-                   TargetSettingsDialog.OnTargetSettingsListener,
-                   WeatherSettingsDialog.OnWeatherSettingsListener {
-
-    private static final String TAG = "MainActivity";
-    private ImageView mapImageView;
-    private TouchableImageView touchableImageView;
-    private TextView targetAnglesText;
-    private BallisticCalculator.WeatherConditions currentWeather;
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        
-        // Установка полноэкранного режима
-        getWindow().setFlags(
-            WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
-            WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS
-        );
-        
-        // Скрытие системных UI элементов
-        getWindow().getDecorView().setSystemUiVisibility(
-            View.SYSTEM_UI_FLAG_LAYOUT_STABLE
-            | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
-            | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
-            | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
-            | View.SYSTEM_UI_FLAG_FULLSCREEN
-            | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY
-        );
-        
-        setContentView(R.layout.activity_main);
-
-        mapImageView = findViewById(R.id.mapImageView);
-        touchableImageView = findViewById(R.id.map_view);
-        
-        // Устанавливаем правильный ScaleType для карты
-        mapImageView.setScaleType(ImageView.ScaleType.MATRIX);
-        
-        touchableImageView.setMapImageView(mapImageView);
-
-        targetAnglesText = findViewById(R.id.targetAnglesText);
-        touchableImageView.setTargetAnglesText(targetAnglesText);
-
-        // Инициализация метеоусловий по умолчанию
-        currentWeather = new BallisticCalculator.WeatherConditions(0.0, 1013.25, 50.0, 0.0, 0.0);
-
-        // Добавляем кнопку настроек погоды
-        Button weatherButton = findViewById(R.id.weather_button);
-        weatherButton.setOnClickListener(v -> showWeatherSettingsDialog());
-
-        Button resetButton = findViewById(R.id.resetButton);
-        resetButton.setOnClickListener(v -> touchableImageView.reset());
-
-        loadMapImage();
-    }
-
-    private void loadMapImage() {
-        try {
-            Log.d(TAG, "Starting to load map image");
-            InputStream inputStream = getAssets().open("al_basrah/map.png");
-            Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-            
-            if (bitmap != null) {
-                Log.d(TAG, "Map image loaded successfully. Size: " + bitmap.getWidth() + "x" + bitmap.getHeight());
-                mapImageView.setImageBitmap(bitmap);
-                
-                // Ждем пока view получит размеры
-                mapImageView.post(() -> {
-                    // Инициализируем начальное положение и масштаб карты
-                    Matrix matrix = new Matrix();
-                    float scale = Math.min(
-                        (float) mapImageView.getWidth() / bitmap.getWidth(),
-                        (float) mapImageView.getHeight() / bitmap.getHeight()
-                    );
-                    
-                    // Устанавливаем начальный масштаб немного меньше, чтобы видеть всю карту
-                    scale *= 0.9f;
-                    matrix.setScale(scale, scale);
-                    
-                    // Центрируем карту
-                    float dx = (mapImageView.getWidth() - bitmap.getWidth() * scale) / 2;
-                    float dy = (mapImageView.getHeight() - bitmap.getHeight() * scale) / 2;
-                    matrix.postTranslate(dx, dy);
-                    
-                    mapImageView.setImageMatrix(matrix);
-                    touchableImageView.setInitialMatrix(matrix);
-                });
-            } else {
-                Log.e(TAG, "Failed to decode map image - bitmap is null");
-            }
-            
-            inputStream.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Error loading map image: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    private void showWeatherSettingsDialog() {
-        Log.d(TAG, String.format(
-            "Showing weather settings dialog with current values:\n" +
-            "Temperature: %.1f°C\n" +
-            "Pressure: %.1f hPa\n" +
-            "Humidity: %.1f%%\n" +
-            "Wind: %.1f m/s @ %.1f°",
-            currentWeather.temperature, currentWeather.pressure, currentWeather.humidity,
-            currentWeather.windSpeed, currentWeather.windDirection));
-            
-        WeatherSettingsDialog dialog = WeatherSettingsDialog.newInstance(currentWeather);
-        dialog.show(getSupportFragmentManager(), "weather_settings");
-    }
-
-    @Override
-    public void onSettingsChanged(int mortarIndex, double elevation, int ammoIndex) {
-        touchableImageView.updateMortarSettings(mortarIndex, elevation, ammoIndex);
-    }
-
-    @Override
-    public void onTargetSettingsChanged(double elevation) {
-        touchableImageView.updateTargetSettings(elevation);
-    }
-
-    @Override
-    public void onWeatherSettingsChanged(BallisticCalculator.WeatherConditions weather) {
-        Log.d(TAG, String.format(
-            "Weather settings changed in MainActivity:\n" +
-            "Temperature: %.1f°C\n" +
-            "Pressure: %.1f hPa\n" +
-            "Humidity: %.1f%%\n" +
-            "Wind: %.1f m/s @ %.1f°",
-            weather.temperature, weather.pressure, weather.humidity,
-            weather.windSpeed, weather.windDirection));
-        
-        currentWeather = weather;
-        touchableImageView.onWeatherSettingsChanged(weather);
-    }
+package com.example.mortarcalculator;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.View;
+import android.view.WindowManager;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class MainActivity extends AppCompatActivity 
+        implements MortarSettingsDialog.OnSettingsChangedListener,
+                   TargetSettingsDialog.OnTargetSettingsListener,
+                   WeatherSettingsDialog.OnWeatherSettingsListener {
+
+    private static final String TAG = "MainActivity";
+    private static final String MAP_ASSET = "al_basrah/map.png";
+    // Доля кучи, которую может занять декодированная карта
+    private static final int MAP_HEAP_FRACTION = 4;
+    private ImageView mapImageView;
+    private TouchableImageView touchableImageView;
+    private TextView targetAnglesText;
+    private BallisticCalculator.WeatherConditions currentWeather;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        
+        // Установка полноэкранного режима
+        getWindow().setFlags(
+            WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
+            WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS
+        );
+        
+        // Скрытие системных UI элементов
+        getWindow().getDecorView().setSystemUiVisibility(
+            View.SYSTEM_UI_FLAG_LAYOUT_STABLE
+            | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
+            | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
+            | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
+            | View.SYSTEM_UI_FLAG_FULLSCREEN
+            | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY
+        );
+        
+        setContentView(R.layout.activity_main);
+
+        mapImageView = findViewById(R.id.mapImageView);
+        touchableImageView = findViewById(R.id.map_view);
+        
+        // Устанавливаем правильный ScaleType для карты
+        mapImageView.setScaleType(ImageView.ScaleType.MATRIX);
+        
+        touchableImageView.setMapImageView(mapImageView);
+
+        targetAnglesText = findViewById(R.id.targetAnglesText);
+        touchableImageView.setTargetAnglesText(targetAnglesText);
+
+        // Инициализация метеоусловий по умолчанию
+        currentWeather = new BallisticCalculator.WeatherConditions(0.0, 1013.25, 50.0, 0.0, 0.0);
+
+        // Кривые сопротивления из assets должны быть назначены до построения таблиц
+        DragCurve.loadAssets(getAssets());
+
+        // Строим таблицы стрельбы в фоне, пока пользователь расставляет минометы
+        FiringTable.init(this);
+        FiringTable.prefetchAll();
+
+        // Рельеф читаем в фоне: высоты точек подставятся, когда он будет загружен
+        DSMReader.loadAsync(this);
+
+        // Добавляем кнопку настроек погоды
+        Button weatherButton = findViewById(R.id.weather_button);
+        weatherButton.setOnClickListener(v -> showWeatherSettingsDialog());
+
+        Button resetButton = findViewById(R.id.resetButton);
+        resetButton.setOnClickListener(v -> touchableImageView.reset());
+
+        // Карта из пирамиды тайлов, если она есть: декодируются только видимые тайлы
+        MapTileLayer tiles = MapTileLayer.open(getAssets(), MapTileLayer.ASSET_DIR,
+            new File(getCacheDir(), MapTileLayer.ASSET_DIR));
+        if (tiles != null) {
+            // Тайлы рельефа регистрируются по именам файлов; повторная регистрация
+            // из DSMReader.loadAsync их уже не добавит
+            TerrainService.init(this);
+        }
+        if (tiles != null && !DSMReader.overlapsHeightmap(this, tiles.projection())
+                && !TerrainService.covers(tiles.projection())) {
+            // Пирамида описывает район без данных о высотах: на ней высоты, видимость
+            // и расчет по рельефу молча перестали бы работать
+            Log.w(TAG, "Tile pyramid is not covered by the heightmap or DEM tiles, using the map image");
+            tiles.clear();
+            tiles = null;
+        }
+        if (tiles != null) {
+            MapProjection projection = tiles.projection();
+            MapProjection.setMap(projection);
+            touchableImageView.setTileLayer(tiles);
+            fitMap(projection.width, projection.height);
+        } else {
+            loadMapImage();
+        }
+    }
+
+    private void loadMapImage() {
+        try {
+            Log.d(TAG, "Starting to load map image");
+            // Сначала читаем только размеры, чтобы выбрать прореживание до декодирования
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            try (InputStream inputStream = getAssets().open(MAP_ASSET)) {
+                BitmapFactory.decodeStream(inputStream, null, bounds);
+            }
+            int mapWidth = bounds.outWidth;
+            int mapHeight = bounds.outHeight;
+            if (mapWidth <= 0 || mapHeight <= 0) {
+                Log.e(TAG, "Failed to read map image size");
+                return;
+            }
+            // Привязка карты - из world-файла рядом с изображением, иначе прежняя
+            MapProjection.setMap(MapProjection.load(getAssets(), MAP_ASSET, mapWidth, mapHeight,
+                MapProjection.defaultMap(mapWidth, mapHeight)));
+
+            // Карта непрозрачна: RGB_565 вдвое компактнее ARGB_8888
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            options.inSampleSize = mapSampleSize(mapWidth, mapHeight);
+            Bitmap bitmap;
+            try (InputStream inputStream = getAssets().open(MAP_ASSET)) {
+                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            }
+            
+            if (bitmap != null) {
+                Log.d(TAG, "Map image loaded successfully. Size: " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                    + " (1/" + options.inSampleSize + " of " + mapWidth + "x" + mapHeight + ")");
+                // Прореженная карта растягивается до исходного размера: матрица вида
+                // и координаты меток остаются в пикселях исходной карты
+                bitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+                BitmapDrawable drawable = new BitmapDrawable(getResources(), bitmap);
+                drawable.setTargetDensity(DisplayMetrics.DENSITY_DEFAULT * options.inSampleSize);
+                mapImageView.setImageDrawable(drawable);
+                
+                fitMap(mapWidth, mapHeight);
+            } else {
+                Log.e(TAG, "Failed to decode map image - bitmap is null");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading map image: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Вписывает карту заданного размера в экран, когда view получит размеры
+     */
+    private void fitMap(int mapWidth, int mapHeight) {
+        mapImageView.post(() -> {
+            // Инициализируем начальное положение и масштаб карты
+            Matrix matrix = new Matrix();
+            float scale = Math.min(
+                (float) mapImageView.getWidth() / mapWidth,
+                (float) mapImageView.getHeight() / mapHeight
+            );
+            
+            // Устанавливаем начальный масштаб немного меньше, чтобы видеть всю карту
+            scale *= 0.9f;
+            matrix.setScale(scale, scale);
+            
+            // Центрируем карту
+            float dx = (mapImageView.getWidth() - mapWidth * scale) / 2;
+            float dy = (mapImageView.getHeight() - mapHeight * scale) / 2;
+            matrix.postTranslate(dx, dy);
+            
+            mapImageView.setImageMatrix(matrix);
+            touchableImageView.setInitialMatrix(matrix);
+        });
+    }
+
+    /**
+     * Наименьшее прореживание (степень двойки), при котором карта в RGB_565
+     * занимает не больше 1/{@link #MAP_HEAP_FRACTION} доступной куче
+     */
+    private static int mapSampleSize(int width, int height) {
+        long budget = Runtime.getRuntime().maxMemory() / MAP_HEAP_FRACTION;
+        int sampleSize = 1;
+        while ((long) (width / sampleSize) * (height / sampleSize) * 2 > budget) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private void showWeatherSettingsDialog() {
+        Log.d(TAG, String.format(
+            "Showing weather settings dialog with current values:\n" +
+            "Temperature: %.1f°C\n" +
+            "Pressure: %.1f hPa\n" +
+            "Humidity: %.1f%%\n" +
+            "Wind: %.1f m/s @ %.1f°",
+            currentWeather.temperature, currentWeather.pressure, currentWeather.humidity,
+            currentWeather.windSpeed, currentWeather.windDirection));
+            
+        WeatherSettingsDialog dialog = WeatherSettingsDialog.newInstance(currentWeather);
+        dialog.show(getSupportFragmentManager(), "weather_settings");
+    }
+
+    @Override
+    public void onSettingsChanged(int mortarIndex, double elevation, int ammoIndex) {
+        touchableImageView.updateMortarSettings(mortarIndex, elevation, ammoIndex);
+    }
+
+    @Override
+    public void onTargetSettingsChanged(double elevation) {
+        touchableImageView.updateTargetSettings(elevation);
+    }
+
+    @Override
+    public void onWeatherSettingsChanged(BallisticCalculator.WeatherConditions weather) {
+        Log.d(TAG, String.format(
+            "Weather settings changed in MainActivity:\n" +
+            "Temperature: %.1f°C\n" +
+            "Pressure: %.1f hPa\n" +
+            "Humidity: %.1f%%\n" +
+            "Wind: %.1f m/s @ %.1f°",
+            weather.temperature, weather.pressure, weather.humidity,
+            weather.windSpeed, weather.windDirection));
+        
+        currentWeather = weather;
+        // Профиль плотности воздуха строим один раз на новые метеоусловия
+        BallisticCalculator.prepareWeather(weather);
+        touchableImageView.onWeatherSettingsChanged(weather);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,280 @@
+package com.example.mortarcalculator;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Привязка растра к географическим координатам: широта/долгота ↔ пиксели
+ * растра ↔ локальные метры.
+ *
+ * Растр в географической проекции (как карта и карта высот): столбцы идут
+ * на восток, строки на юг с постоянным шагом в градусах. Пиксельные
+ * координаты отсчитываются от края растра: пиксель i занимает [i, i + 1).
+ * Метры - равнопромежуточная проекция с масштабом по долготе на широте
+ * точки отсчета, на дистанциях стрельбы ошибка меньше дециметра.
+ *
+ * Пакетные преобразования работают с чередующимися массивами
+ * (широта, долгота, ...) и (x, y, ...) без выделения памяти, поэтому
+ * N точек переводятся на экран одним проходом и одним Matrix.mapPoints.
+ *
+ * Общая проекция карты - {@link #map()}; она задается по world-файлу или
+ * заголовку рядом с изображением, а без них совпадает с прежней привязкой
+ * карты Аль-Басры.
+ */
+final class MapProjection {
+    private static final String TAG = "MapProjection";
+
+    static final double METERS_PER_DEGREE = 111000.0; // метров в градусе широты
+
+    // Прежняя привязка карты Аль-Басры: квадрат 35 км от 30.4° с.ш., 47.7° в.д.
+    private static final double DEFAULT_WEST = 47.7;
+    private static final double DEFAULT_SOUTH = 30.4;
+    private static final double DEFAULT_SPAN = 35000.0 / METERS_PER_DEGREE;
+    static final int DEFAULT_SIZE = 4096; // пикселей по стороне
+
+    private static final Pattern BOUNDING_BOX = Pattern.compile("<BoundingBox([^>]*)/?>");
+    private static final Pattern ATTRIBUTE = Pattern.compile("(\\w+)\\s*=\\s*\"([^\"]*)\"");
+
+    private static volatile MapProjection map = defaultMap(DEFAULT_SIZE, DEFAULT_SIZE);
+
+    final double west; // долгота левого края растра
+    final double north; // широта верхнего края растра
+    final double lonStep; // градусов на столбец
+    final double latStep; // градусов на строку (строки идут на юг)
+    final int width;
+    final int height;
+
+    MapProjection(double west, double north, double lonStep, double latStep, int width, int height) {
+        if (!(lonStep > 0) || !(latStep > 0) || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT,
+                "Invalid projection: %d x %d, step %.9f x %.9f", width, height, lonStep, latStep));
+        }
+        this.west = west;
+        this.north = north;
+        this.lonStep = lonStep;
+        this.latStep = latStep;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Проекция по границам растра (по краям крайних пикселей)
+     */
+    static MapProjection fromBounds(double west, double south, double east, double north, int width, int height) {
+        return new MapProjection(west, north, (east - west) / width, (north - south) / height, width, height);
+    }
+
+    static MapProjection fromHeader(DemHeader header) {
+        return new MapProjection(header.west(), header.north(), header.lonStep, header.latStep,
+            header.width, header.height);
+    }
+
+    /**
+     * Проекция по BoundingBox из tilemapresource.xml (gdal2tiles пишет его в градусах)
+     */
+    static MapProjection fromTileMapResource(Reader reader, int width, int height) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[1024];
+        for (int read; (read = reader.read(buffer)) > 0; ) {
+            text.append(buffer, 0, read);
+        }
+        Matcher box = BOUNDING_BOX.matcher(text);
+        if (!box.find()) {
+            throw new IOException("tilemapresource.xml has no BoundingBox");
+        }
+        double minX = Double.NaN, minY = Double.NaN, maxX = Double.NaN, maxY = Double.NaN;
+        Matcher attribute = ATTRIBUTE.matcher(box.group(1));
+        while (attribute.find()) {
+            double value = Double.parseDouble(attribute.group(2));
+            switch (attribute.group(1).toLowerCase(Locale.ROOT)) {
+                case "minx": minX = value; break;
+                case "miny": minY = value; break;
+                case "maxx": maxX = value; break;
+                case "maxy": maxY = value; break;
+                default: break;
+            }
+        }
+        if (Double.isNaN(minX) || Double.isNaN(minY) || Double.isNaN(maxX) || Double.isNaN(maxY)) {
+            throw new IOException("Incomplete BoundingBox in tilemapresource.xml");
+        }
+        return fromBounds(minX, minY, maxX, maxY, width, height);
+    }
+
+    /**
+     * Привязка изображения из assets по сопроводительному world-файлу
+     * (.tfw/.pgw/.wld) или заголовку .hdr с тем же именем
+     * @return проекция или fallback, если привязки нет или она не читается
+     */
+    static MapProjection load(AssetManager assets, String imagePath, int width, int height,
+                              MapProjection fallback) {
+        int dot = imagePath.lastIndexOf('.');
+        String base = dot > imagePath.lastIndexOf('/') ? imagePath.substring(0, dot) : imagePath;
+        for (String extension : new String[]{".tfw", ".pgw", ".wld", ".hdr"}) {
+            String path = base + extension;
+            try (Reader reader = new InputStreamReader(assets.open(path), StandardCharsets.US_ASCII)) {
+                DemHeader header = extension.equals(".hdr")
+                    ? DemHeader.parseHdr(reader, DemHeader.NO_DATA_NONE)
+                    : DemHeader.parseWorldFile(reader, width, height, ByteOrder.LITTLE_ENDIAN, DemHeader.NO_DATA_NONE);
+                // Пиксельная сетка - изображения, даже если заголовок описывает другой размер
+                MapProjection projection = fromBounds(header.west(), header.south(), header.east(), header.north(),
+                    width, height);
+                Log.d(TAG, "Georeferenced " + imagePath + " from " + path);
+                return projection;
+            } catch (IOException | RuntimeException e) {
+                // Нет файла или он не разбирается: пробуем следующий
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Прежняя привязка карты, растянутая на изображение заданного размера
+     */
+    static MapProjection defaultMap(int width, int height) {
+        return fromBounds(DEFAULT_WEST, DEFAULT_SOUTH, DEFAULT_WEST + DEFAULT_SPAN, DEFAULT_SOUTH + DEFAULT_SPAN,
+            width, height);
+    }
+
+    /**
+     * Проекция изображения карты, общая для отрисовки, касаний и расчетов
+     */
+    static MapProjection map() {
+        return map;
+    }
+
+    static void setMap(MapProjection projection) {
+        map = projection;
+    }
+
+    double south() { return north - height * latStep; }
+    double east() { return west + width * lonStep; }
+
+    boolean contains(double lat, double lon) {
+        return lat >= south() && lat <= north && lon >= west && lon <= east();
+    }
+
+    /**
+     * Есть ли у растров общая область
+     */
+    boolean overlaps(MapProjection other) {
+        return west < other.east() && other.west < east()
+            && south() < other.north && other.south() < north;
+    }
+
+    double pixelX(double lon) {
+        return (lon - west) / lonStep;
+    }
+
+    double pixelY(double lat) {
+        return (north - lat) / latStep;
+    }
+
+    double lon(double pixelX) {
+        return west + pixelX * lonStep;
+    }
+
+    double lat(double pixelY) {
+        return north - pixelY * latStep;
+    }
+
+    /**
+     * Пикселей растра на метр по меридиану
+     */
+    double pixelsPerMeter() {
+        return 1.0 / (latStep * METERS_PER_DEGREE);
+    }
+
+    /**
+     * Шаг растра в метрах с запада на восток и с севера на юг
+     */
+    double metersPerPixelX() {
+        return lonStep * metersPerDegreeLon((north + south()) / 2);
+    }
+
+    double metersPerPixelY() {
+        return latStep * METERS_PER_DEGREE;
+    }
+
+    /**
+     * Географические координаты в пиксели растра
+     * @param latLon чередующиеся широта и долгота
+     * @param pixels чередующиеся x и y; может быть передан в Matrix.mapPoints
+     */
+    void toPixels(double[] latLon, float[] pixels, int count) {
+        for (int i = 0; i < 2 * count; i += 2) {
+            pixels[i] = (float) pixelX(latLon[i + 1]);
+            pixels[i + 1] = (float) pixelY(latLon[i]);
+        }
+    }
+
+    /**
+     * Пиксели растра в географические координаты; точки за краем растра
+     * прижимаются к нему
+     * @param pixels чередующиеся x и y
+     * @param latLon чередующиеся широта и долгота
+     */
+    void toGeo(float[] pixels, double[] latLon, int count) {
+        for (int i = 0; i < 2 * count; i += 2) {
+            double x = Math.max(0, Math.min(width, pixels[i]));
+            double y = Math.max(0, Math.min(height, pixels[i + 1]));
+            latLon[i] = lat(y);
+            latLon[i + 1] = lon(x);
+        }
+    }
+
+    /**
+     * Географические координаты в метры относительно точки отсчета
+     * @param meters чередующиеся смещения на восток и на север
+     */
+    static void toLocal(double originLat, double originLon, double[] latLon, double[] meters, int count) {
+        double lonScale = metersPerDegreeLon(originLat);
+        for (int i = 0; i < 2 * count; i += 2) {
+            meters[i] = (latLon[i + 1] - originLon) * lonScale;
+            meters[i + 1] = (latLon[i] - originLat) * METERS_PER_DEGREE;
+        }
+    }
+
+    /**
+     * Метры относительно точки отсчета в географические координаты
+     * @param meters чередующиеся смещения на восток и на север
+     */
+    static void fromLocal(double originLat, double originLon, double[] meters, double[] latLon, int count) {
+        double lonScale = metersPerDegreeLon(originLat);
+        for (int i = 0; i < 2 * count; i += 2) {
+            latLon[i] = originLat + meters[i + 1] / METERS_PER_DEGREE;
+            latLon[i + 1] = originLon + meters[i] / lonScale;
+        }
+    }
+
+    /**
+     * Расстояние по горизонтали в метрах; масштаб по долготе берется
+     * на средней широте
+     */
+    static double distance(double fromLat, double fromLon, double toLat, double toLon) {
+        double dx = (toLon - fromLon) * metersPerDegreeLon((fromLat + toLat) / 2);
+        double dy = (toLat - fromLat) * METERS_PER_DEGREE;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Направление от первой точки на вторую в градусах от севера по часовой стрелке
+     */
+    static double azimuth(double fromLat, double fromLon, double toLat, double toLon) {
+        double dx = (toLon - fromLon) * metersPerDegreeLon((fromLat + toLat) / 2);
+        double dy = (toLat - fromLat) * METERS_PER_DEGREE;
+        double azimuth = Math.toDegrees(Math.atan2(dx, dy));
+        return azimuth < 0 ? azimuth + 360.0 : azimuth;
+    }
+
+    static double metersPerDegreeLon(double lat) {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.mortarcalculator;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Слой карты из пирамиды тайлов TMS в assets (gdal2tiles, профиль mercator):
+ * {dir}/{z}/{x}/{y}.png, строки тайлов отсчитываются с юга.
+ *
+ * Уровень выбирается по текущему масштабу матрицы вида так, чтобы тайлы не
+ * растягивались; декодируются только тайлы, попавшие на экран, а уже
+ * виденные берутся из {@link TileCache} без декодирования. Недостающие тайлы
+ * декодируются в фоне ({@link TileLoader}), начиная с ближайших к центру
+ * экрана; пока тайла нет, на его месте рисуется часть уже декодированного
+ * тайла более крупного уровня. Каждый тайл рисуется в прямоугольник, построенный по
+ * географическим координатам его углов через {@link MapProjection#map()},
+ * поэтому слой совмещается с отметками минометов и цели.
+ *
+ * Кадр без новых тайлов ничего не выделяет: ключи тайлов - примитивные long,
+ * а пути к файлам собираются только для новых запросов в потоке декодирования.
+ *
+ * Используется только из UI-потока.
+ */
+final class MapTileLayer {
+    private static final String TAG = "MapTileLayer";
+    static final String ASSET_DIR = "tiles";
+    private static final String RESOURCE = "tilemapresource.xml";
+    static final int TILE_SIZE = 256;
+    private static final int MAX_FALLBACK_LEVELS = 4; // на сколько уровней вверх искать замену тайлу
+
+    private static final Pattern TILE_SET = Pattern.compile("<TileSet[^>]*order=\"(\\d+)\"");
+    private static final Pattern EXTENSION = Pattern.compile("<TileFormat[^>]*extension=\"(\\w+)\"");
+
+    private final TileCache cache;
+    private final TileLoader loader;
+    private volatile Runnable onTileLoaded; // перерисовка view, из потока декодирования
+    final int minZoom;
+    final int maxZoom;
+    // Границы покрытия в градусах
+    final double west, south, east, north;
+
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix inverse = new Matrix();
+    private final float[] matrixValues = new float[9];
+    private final float[] corners = new float[4];
+    private final double[] cornerGeo = new double[4];
+    private final RectF tileRect = new RectF();
+    private final Rect sourceRect = new Rect();
+
+    private MapTileLayer(TileCache cache, String dir, String extension, int minZoom, int maxZoom,
+                         MapProjection bounds) {
+        this.cache = cache;
+        this.loader = new TileLoader(cache, dir, extension, () -> {
+            Runnable callback = onTileLoaded;
+            if (callback != null) {
+                callback.run();
+            }
+        });
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.west = bounds.west;
+        this.south = bounds.south();
+        this.east = bounds.east();
+        this.north = bounds.north;
+    }
+
+    /**
+     * Открывает пирамиду тайлов из assets
+     * @param cacheDir каталог кэша декодированных тайлов на диске или null; тайлы
+     * пишутся в его подкаталог с версией приложения и хэшем описания пирамиды,
+     * подкаталоги прежних версий удаляются в фоне
+     * @return слой или null, если в каталоге нет tilemapresource.xml
+     */
+    static MapTileLayer open(AssetManager assets, String dir, File cacheDir) {
+        String text;
+        try (Reader reader = new InputStreamReader(assets.open(dir + "/" + RESOURCE), StandardCharsets.UTF_8)) {
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[1024];
+            for (int read; (read = reader.read(buffer)) > 0; ) {
+                builder.append(buffer, 0, read);
+            }
+            text = builder.toString();
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            int minZoom = Integer.MAX_VALUE;
+            int maxZoom = Integer.MIN_VALUE;
+            Matcher tileSet = TILE_SET.matcher(text);
+            while (tileSet.find()) {
+                int zoom = Integer.parseInt(tileSet.group(1));
+                minZoom = Math.min(minZoom, zoom);
+                maxZoom = Math.max(maxZoom, zoom);
+            }
+            if (minZoom > maxZoom) {
+                throw new IOException("No tile sets");
+            }
+            Matcher format = EXTENSION.matcher(text);
+            String extension = format.find() ? format.group(1) : "png";
+            MapProjection bounds = MapProjection.fromTileMapResource(new java.io.StringReader(text), 1, 1);
+            Log.d(TAG, String.format(java.util.Locale.ROOT, "Tile pyramid %s: zoom %d..%d, %.4f..%.4f N, %.4f..%.4f E",
+                dir, minZoom, maxZoom, bounds.south(), bounds.north, bounds.west, bounds.east()));
+            TileCache cache = new TileCache(assets, TileCache.defaultMemoryBytes(), versionedCacheDir(cacheDir, text));
+            return new MapTileLayer(cache, dir, extension, minZoom, maxZoom, bounds);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read " + dir + "/" + RESOURCE + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Подкаталог кэша для текущих тайлов: после обновления приложения или
+     * пирамиды тайлы из кэша прежней версии не показываются
+     */
+    private static File versionedCacheDir(File cacheDir, String resource) {
+        if (cacheDir == null) {
+            return null;
+        }
+        String version = BuildConfig.VERSION_CODE + "_" + Integer.toHexString(resource.hashCode());
+        Thread purge = new Thread(() -> purgeExcept(cacheDir, version), "TileCachePurge");
+        purge.setDaemon(true);
+        purge.setPriority(Thread.MIN_PRIORITY);
+        purge.start();
+        return new File(cacheDir, version);
+    }
+
+    private static void purgeExcept(File dir, String keep) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.getName().equals(keep)) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                purgeExcept(entry, null);
+            }
+            if (!entry.delete()) {
+                Log.w(TAG, "Cannot delete stale tile cache entry " + entry.getName());
+            }
+        }
+    }
+
+    /**
+     * Проекция карты на покрытие пирамиды с разрешением верхнего уровня:
+     * пиксель карты - пиксель тайла уровня maxZoom в центре покрытия
+     */
+    MapProjection projection() {
+        double scale = TILE_SIZE * (double) (1 << maxZoom);
+        int width = (int) Math.ceil((tileX(east, 0) - tileX(west, 0)) * scale);
+        int height = (int) Math.ceil((tileY(south, 0) - tileY(north, 0)) * scale);
+        return MapProjection.fromBounds(west, south, east, north, Math.max(1, width), Math.max(1, height));
+    }
+
+    /**
+     * Действие после декодирования очередного тайла; вызывается из фонового
+     * потока, поэтому должно быть потокобезопасным (например, View::postInvalidateOnAnimation)
+     */
+    void setOnTileLoaded(Runnable callback) {
+        onTileLoaded = callback;
+    }
+
+    /**
+     * Рисует видимые тайлы
+     * @param matrix матрица вида: пиксели карты -> экран
+     */
+    void draw(Canvas canvas, Matrix matrix, MapProjection projection, int viewWidth, int viewHeight) {
+        if (!matrix.invert(inverse)) {
+            return;
+        }
+        // Видимая область в пикселях карты и в градусах
+        corners[0] = 0;
+        corners[1] = 0;
+        corners[2] = viewWidth;
+        corners[3] = viewHeight;
+        inverse.mapPoints(corners);
+        projection.toGeo(corners, cornerGeo, 2);
+        double viewNorth = Math.min(north, Math.max(cornerGeo[0], cornerGeo[2]));
+        double viewSouth = Math.max(south, Math.min(cornerGeo[0], cornerGeo[2]));
+        double viewWest = Math.max(west, Math.min(cornerGeo[1], cornerGeo[3]));
+        double viewEast = Math.min(east, Math.max(cornerGeo[1], cornerGeo[3]));
+
+        if (viewNorth > viewSouth && viewEast > viewWest) {
+            int zoom = zoomFor(matrix, projection);
+            int n = 1 << zoom;
+            int x0 = clamp((int) Math.floor(tileX(viewWest, zoom)), n);
+            int x1 = clamp((int) Math.floor(tileX(viewEast, zoom)), n);
+            int y0 = clamp((int) Math.floor(tileY(viewNorth, zoom)), n);
+            int y1 = clamp((int) Math.floor(tileY(viewSouth, zoom)), n);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    drawTile(canvas, matrix, projection, zoom, x, y, viewWidth / 2f, viewHeight / 2f);
+                }
+            }
+        }
+
+        // Запросы тайлов, ушедших с экрана или с текущего уровня, больше не нужны
+        loader.endFrame();
+        cache.endFrame();
+    }
+
+    /**
+     * Освобождает все декодированные тайлы
+     */
+    void clear() {
+        loader.cancelAll();
+        cache.clear();
+    }
+
+    /**
+     * Наименьший уровень, тайлы которого на экране не крупнее своего разрешения
+     */
+    private int zoomFor(Matrix matrix, MapProjection projection) {
+        matrix.getValues(matrixValues);
+        // Экранных пикселей на градус долготы и пикселей тайла нулевого уровня на градус
+        double screenPerDegree = Math.abs(matrixValues[Matrix.MSCALE_X]) / projection.lonStep;
+        double tilePerDegree = TILE_SIZE / 360.0;
+        int zoom = (int) Math.ceil(Math.log(screenPerDegree / tilePerDegree) / Math.log(2));
+        return Math.max(minZoom, Math.min(maxZoom, zoom));
+    }
+
+    private void drawTile(Canvas canvas, Matrix matrix, MapProjection projection, int zoom, int x, int y,
+                          float centerX, float centerY) {
+        long key = key(zoom, x, y);
+        if (loader.isMissing(key)) {
+            return;
+        }
+        // Углы тайла: географические координаты -> пиксели карты -> экран
+        int n = 1 << zoom;
+        cornerGeo[0] = tileLat(y, n);
+        cornerGeo[1] = x * 360.0 / n - 180.0;
+        cornerGeo[2] = tileLat(y + 1, n);
+        cornerGeo[3] = (x + 1) * 360.0 / n - 180.0;
+        projection.toPixels(cornerGeo, corners, 2);
+        tileRect.set(corners[0], corners[1], corners[2], corners[3]);
+        matrix.mapRect(tileRect);
+
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null) {
+            canvas.drawBitmap(bitmap, null, tileRect, tilePaint);
+            return;
+        }
+
+        // Тайла нет в памяти: ставим его в очередь, ближние к центру экрана - первыми
+        float dx = (tileRect.left + tileRect.right) / 2 - centerX;
+        float dy = (tileRect.top + tileRect.bottom) / 2 - centerY;
+        // В TMS строки отсчитываются с юга
+        int row = n - 1 - y;
+        loader.request(key, zoom, x, row, dx, dy);
+        drawFallback(canvas, zoom, x, y);
+    }
+
+    /**
+     * Заполняет место недостающего тайла увеличенной частью тайла
+     * более крупного уровня, если тот уже в памяти
+     */
+    private void drawFallback(Canvas canvas, int zoom, int x, int y) {
+        for (int levels = 1; levels <= MAX_FALLBACK_LEVELS && zoom - levels >= minZoom; levels++) {
+            Bitmap parent = cache.get(key(zoom - levels, x >> levels, y >> levels));
+            if (parent == null) {
+                continue;
+            }
+            // Доля родителя, которую занимает тайл: 1/2^levels по каждой оси
+            int size = parent.getWidth() >> levels;
+            int left = (x - ((x >> levels) << levels)) * size;
+            int top = (y - ((y >> levels) << levels)) * size;
+            sourceRect.set(left, top, left + Math.max(1, size), top + Math.max(1, size));
+            canvas.drawBitmap(parent, sourceRect, tileRect, tilePaint);
+            return;
+        }
+    }
+
+    private static long key(int zoom, int x, int y) {
+        return ((long) zoom << 48) | ((long) x << 24) | y;
+    }
+
+    private static int clamp(int tile, int n) {
+        return Math.max(0, Math.min(n - 1, tile));
+    }
+
+    // Веб-меркатор: номер тайла (дробный) по долготе и по широте, строки с севера
+    static double tileX(double lon, int zoom) {
+        return (lon + 180.0) / 360.0 * (1 << zoom);
+    }
+
+    static double tileY(double lat, int zoom) {
+        double phi = Math.toRadians(lat);
+        return (1.0 - Math.log(Math.tan(phi) + 1.0 / Math.cos(phi)) / Math.PI) / 2.0 * (1 << zoom);
+    }
+
+    private static double tileLat(int y, int n) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * y / n))));
+    }
+}
@@ -0,0 +1,411 @@
+package com.example.mortarcalculator;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Цифровая модель рельефа из 16-битного растра, отображенного в память.
+ *
+ * Отсчеты читаются прямо из mmap-буфера, поэтому тайл 1°×1° ALOS AW3D30
+ * (3600×3600, ~25 МБ) не занимает кучу Java: в память попадают только
+ * страницы, к которым обращались запросы высот.
+ *
+ * Поддерживаются несжатые GeoTIFF (int16/uint16, полосы подряд) и сырые
+ * растры (.raw/.bil/.hgt) с привязкой из ALOS *_HDR.txt, .hdr (listgeo или ESRI BIL) или .tfw.
+ * Файлы в assets должны храниться без сжатия (noCompress в build.gradle).
+ */
+public final class RasterDem {
+    private static final String TAG = "RasterDem";
+
+    // Теги TIFF и GeoTIFF
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+    private static final int TAG_MODEL_TIEPOINT = 33922;
+    private static final int TAG_GEO_KEY_DIRECTORY = 34735;
+    private static final int TAG_GDAL_NODATA = 42113;
+    private static final int GEO_KEY_RASTER_TYPE = 1025;
+    private static final int RASTER_PIXEL_IS_POINT = 2;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_DOUBLE = 12;
+
+    final DemHeader header;
+    private final ShortBuffer samples;
+    private final int width;
+    private final int lastColumn;
+    private final int lastRow;
+    private final double inverseLatStep;
+    private final double inverseLonStep;
+
+    RasterDem(DemHeader header, ByteBuffer data) {
+        if (data.capacity() < 2L * header.width * header.height) {
+            throw new IllegalArgumentException("Raster data is shorter than " + header.width + " x " + header.height);
+        }
+        this.header = header;
+        this.samples = data.duplicate().order(header.order).asShortBuffer();
+        this.width = header.width;
+        this.lastColumn = header.width - 1;
+        this.lastRow = header.height - 1;
+        this.inverseLatStep = 1.0 / header.latStep;
+        this.inverseLonStep = 1.0 / header.lonStep;
+    }
+
+    /**
+     * Объем отсчетов растра в байтах
+     */
+    long sizeBytes() {
+        return 2L * header.width * header.height;
+    }
+
+    /**
+     * Покрывает ли растр точку
+     */
+    public boolean contains(double lat, double lon) {
+        return lat <= header.north() && lat >= header.south() && lon >= header.west() && lon <= header.east();
+    }
+
+    /**
+     * Высота в точке с билинейной интерполяцией по соседним отсчетам.
+     * Отсчеты "нет данных" исключаются из интерполяции.
+     * @return высота в метрах или NaN вне растра и в дырах данных
+     */
+    public double getElevation(double lat, double lon) {
+        if (!contains(lat, lon)) {
+            return Double.NaN;
+        }
+        double row = (header.originLat - lat) * inverseLatStep;
+        double column = (lon - header.originLon) * inverseLonStep;
+        // Крайние полпикселя растра берем по краевым отсчетам
+        row = Math.max(0.0, Math.min(lastRow, row));
+        column = Math.max(0.0, Math.min(lastColumn, column));
+        return bilinear(row, column);
+    }
+
+    private double bilinear(double row, double column) {
+        int y0 = (int) row;
+        int x0 = (int) column;
+        int y1 = Math.min(y0 + 1, lastRow);
+        int x1 = Math.min(x0 + 1, lastColumn);
+        double wy = row - y0;
+        double wx = column - x0;
+
+        int noData = header.noData;
+        int h00 = samples.get(y0 * width + x0);
+        int h10 = samples.get(y0 * width + x1);
+        int h01 = samples.get(y1 * width + x0);
+        int h11 = samples.get(y1 * width + x1);
+        if (h00 != noData && h10 != noData && h01 != noData && h11 != noData) {
+            double h0 = h00 + (h10 - h00) * wx;
+            double h1 = h01 + (h11 - h01) * wx;
+            return h0 + (h1 - h0) * wy;
+        }
+
+        // Рядом дыра в данных: нормируем веса по валидным отсчетам
+        double sum = 0.0;
+        double weight = 0.0;
+        double w;
+        if (h00 != noData) { w = (1 - wx) * (1 - wy); sum += h00 * w; weight += w; }
+        if (h10 != noData) { w = wx * (1 - wy); sum += h10 * w; weight += w; }
+        if (h01 != noData) { w = (1 - wx) * wy; sum += h01 * w; weight += w; }
+        if (h11 != noData) { w = wx * wy; sum += h11 * w; weight += w; }
+        return weight > 0 ? sum / weight : Double.NaN;
+    }
+
+    /**
+     * Открывает растр из assets. Для .tif привязка берется из GeoTIFF-тегов,
+     * для сырых растров - из сопроводительного файла рядом:
+     * ALOS *_HDR.txt, .hdr (listgeo или ESRI BIL) или .tfw (для квадратного растра).
+     */
+    public static RasterDem openAsset(AssetManager assets, String path) throws IOException {
+        ByteBuffer data = mapAsset(assets, path);
+        if (isTiff(path)) {
+            return fromGeoTiff(data);
+        }
+        return new RasterDem(readSidecarHeader(assets, path, data), data);
+    }
+
+    /**
+     * Открывает растр из файла (например, загруженного тайла в filesDir)
+     */
+    public static RasterDem openFile(File file) throws IOException {
+        ByteBuffer data;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (isTiff(file.getName())) {
+            return fromGeoTiff(data);
+        }
+        String base = baseName(file.getPath());
+        for (String suffix : new String[]{"_HDR.txt", ".hdr", ".tfw"}) {
+            File sidecar = new File(base + suffix);
+            if (sidecar.isFile()) {
+                try (InputStream stream = new FileInputStream(sidecar)) {
+                    return new RasterDem(parseSidecar(suffix, stream, data), data);
+                }
+            }
+        }
+        throw new FileNotFoundException("No header for raster " + file);
+    }
+
+    private static DemHeader readSidecarHeader(AssetManager assets, String path, ByteBuffer data)
+            throws IOException {
+        String base = baseName(path);
+        for (String suffix : new String[]{"_HDR.txt", ".hdr", ".tfw"}) {
+            InputStream stream;
+            try {
+                stream = assets.open(base + suffix);
+            } catch (FileNotFoundException e) {
+                continue;
+            }
+            try {
+                return parseSidecar(suffix, stream, data);
+            } finally {
+                stream.close();
+            }
+        }
+        throw new FileNotFoundException("No header for raster " + path);
+    }
+
+    private static DemHeader parseSidecar(String suffix, InputStream stream, ByteBuffer data) throws IOException {
+        Reader reader = new InputStreamReader(stream, StandardCharsets.US_ASCII);
+        switch (suffix) {
+            case "_HDR.txt":
+                return DemHeader.parseAlosHeader(reader);
+            case ".hdr":
+                // .hdr бывает двух видов: выгрузка listgeo или заголовок ESRI BIL
+                return DemHeader.parseHdr(reader, DemHeader.NO_DATA_SRTM);
+            default:
+                // В world-файле нет размера: считаем растр квадратным, как тайлы SRTM (.hgt, big-endian)
+                int side = (int) Math.round(Math.sqrt(data.capacity() / 2.0));
+                return DemHeader.parseWorldFile(reader, side, side, ByteOrder.BIG_ENDIAN, DemHeader.NO_DATA_SRTM);
+        }
+    }
+
+    /**
+     * Минимальный разбор GeoTIFF: несжатый одноканальный int16 с полосами,
+     * лежащими в файле подряд (так пишут GDAL и поставщики AW3D30/SRTM).
+     * Отсчеты не копируются: возвращается срез исходного буфера.
+     */
+    static RasterDem fromGeoTiff(ByteBuffer file) throws IOException {
+        ByteBuffer tiff = file.duplicate();
+        short magic = tiff.getShort(0);
+        if (magic == 0x4949) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (magic == 0x4D4D) {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("Not a TIFF file");
+        }
+        if (tiff.getShort(2) != 42) {
+            throw new IOException("BigTIFF and unknown TIFF versions are not supported");
+        }
+
+        int ifd = tiff.getInt(4);
+        int entries = tiff.getShort(ifd) & 0xFFFF;
+        int width = 0, height = 0, bits = 16, compression = 1, samplesPerPixel = 1;
+        int rowsPerStrip = Integer.MAX_VALUE;
+        long[] stripOffsets = null;
+        long[] stripByteCounts = null;
+        double[] scale = null;
+        double[] tiepoint = null;
+        int[] geoKeys = null;
+        String noDataText = null;
+        boolean tiled = false;
+
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2) & 0xFFFF;
+            int count = tiff.getInt(entry + 4);
+            switch (tag) {
+                case TAG_IMAGE_WIDTH: width = (int) readUnsigned(tiff, entry, type, count, 0); break;
+                case TAG_IMAGE_LENGTH: height = (int) readUnsigned(tiff, entry, type, count, 0); break;
+                case TAG_BITS_PER_SAMPLE: bits = (int) readUnsigned(tiff, entry, type, count, 0); break;
+                case TAG_COMPRESSION: compression = (int) readUnsigned(tiff, entry, type, count, 0); break;
+                case TAG_SAMPLES_PER_PIXEL: samplesPerPixel = (int) readUnsigned(tiff, entry, type, count, 0); break;
+                case TAG_ROWS_PER_STRIP: rowsPerStrip = (int) readUnsigned(tiff, entry, type, count, 0); break;
+                case TAG_STRIP_OFFSETS: stripOffsets = readUnsignedArray(tiff, entry, type, count); break;
+                case TAG_STRIP_BYTE_COUNTS: stripByteCounts = readUnsignedArray(tiff, entry, type, count); break;
+                case TAG_TILE_WIDTH: tiled = true; break;
+                case TAG_MODEL_PIXEL_SCALE: scale = readDoubles(tiff, entry, count); break;
+                case TAG_MODEL_TIEPOINT: tiepoint = readDoubles(tiff, entry, count); break;
+                case TAG_GEO_KEY_DIRECTORY: geoKeys = toInts(readUnsignedArray(tiff, entry, type, count)); break;
+                case TAG_GDAL_NODATA: noDataText = readAscii(tiff, entry, type, count); break;
+                default: break;
+            }
+        }
+
+        if (compression != 1 || bits != 16 || samplesPerPixel != 1 || tiled) {
+            throw new IOException(String.format(
+                "Unsupported GeoTIFF layout: compression=%d, bits=%d, samples=%d, tiled=%b",
+                compression, bits, samplesPerPixel, tiled));
+        }
+        if (stripOffsets == null || scale == null || tiepoint == null || tiepoint.length < 6) {
+            throw new IOException("GeoTIFF has no strips or georeferencing");
+        }
+
+        // Полосы должны идти подряд, тогда весь растр - один непрерывный срез
+        long rowBytes = 2L * width;
+        long expected = stripOffsets[0];
+        for (int i = 0; i < stripOffsets.length; i++) {
+            if (stripOffsets[i] != expected) {
+                throw new IOException("GeoTIFF strips are not contiguous");
+            }
+            long rows = Math.min(rowsPerStrip, height - (long) i * rowsPerStrip);
+            expected += stripByteCounts != null ? stripByteCounts[i] : rows * rowBytes;
+        }
+        long dataSize = rowBytes * height;
+        if (stripOffsets[0] + dataSize > tiff.capacity()) {
+            throw new IOException("GeoTIFF raster data is truncated");
+        }
+
+        // Тайпойнт (i, j, k, x, y, z): пиксель (i, j) соответствует долготе x и широте y
+        boolean pixelIsPoint = geoKeyValue(geoKeys, GEO_KEY_RASTER_TYPE) == RASTER_PIXEL_IS_POINT;
+        double half = pixelIsPoint ? 0.0 : 0.5;
+        double lonStep = scale[0];
+        double latStep = scale[1];
+        double originLon = tiepoint[3] + (half - tiepoint[0]) * lonStep;
+        double originLat = tiepoint[4] - (half - tiepoint[1]) * latStep;
+
+        int noData = DemHeader.NO_DATA_NONE;
+        if (noDataText != null) {
+            try {
+                noData = (int) Math.round(Double.parseDouble(noDataText.trim()));
+            } catch (NumberFormatException e) {
+                android.util.Log.w(TAG, "Ignoring GDAL_NODATA value '" + noDataText + "'");
+            }
+        }
+
+        DemHeader header = new DemHeader(width, height, originLat, originLon, latStep, lonStep,
+            tiff.order(), noData);
+        ByteBuffer data = file.duplicate();
+        data.position((int) stripOffsets[0]);
+        data.limit((int) (stripOffsets[0] + dataSize));
+        return new RasterDem(header, data.slice());
+    }
+
+    private static long readUnsigned(ByteBuffer tiff, int entry, int type, int count, int index) {
+        int offset = valueOffset(tiff, entry, type, count);
+        switch (type) {
+            case TYPE_SHORT: return tiff.getShort(offset + index * 2) & 0xFFFFL;
+            case TYPE_LONG: return tiff.getInt(offset + index * 4) & 0xFFFFFFFFL;
+            default: return tiff.get(offset + index) & 0xFFL;
+        }
+    }
+
+    private static long[] readUnsignedArray(ByteBuffer tiff, int entry, int type, int count) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readUnsigned(tiff, entry, type, count, i);
+        }
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer tiff, int entry, int count) {
+        int offset = valueOffset(tiff, entry, TYPE_DOUBLE, count);
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = tiff.getDouble(offset + i * 8);
+        }
+        return values;
+    }
+
+    private static String readAscii(ByteBuffer tiff, int entry, int type, int count) {
+        int offset = valueOffset(tiff, entry, type, count);
+        StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            byte b = tiff.get(offset + i);
+            if (b == 0) {
+                break;
+            }
+            text.append((char) b);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Значение тега лежит прямо в записи, если помещается в 4 байта, иначе по смещению
+     */
+    private static int valueOffset(ByteBuffer tiff, int entry, int type, int count) {
+        int size;
+        switch (type) {
+            case TYPE_SHORT: size = 2; break;
+            case TYPE_LONG: size = 4; break;
+            case TYPE_DOUBLE: size = 8; break;
+            case TYPE_ASCII:
+            default: size = 1; break;
+        }
+        return (long) size * count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+    }
+
+    private static int geoKeyValue(int[] geoKeys, int key) {
+        if (geoKeys == null || geoKeys.length < 4) {
+            return -1;
+        }
+        // Заголовок директории: версия, ревизия, минорная ревизия, число ключей
+        int keys = geoKeys[3];
+        for (int i = 0; i < keys && 4 + i * 4 + 3 < geoKeys.length; i++) {
+            int base = 4 + i * 4;
+            if (geoKeys[base] == key && geoKeys[base + 1] == 0) {
+                return geoKeys[base + 3];
+            }
+        }
+        return -1;
+    }
+
+    private static int[] toInts(long[] values) {
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (int) values[i];
+        }
+        return result;
+    }
+
+    private static ByteBuffer mapAsset(AssetManager assets, String path) throws IOException {
+        AssetFileDescriptor descriptor = assets.openFd(path);
+        try (FileInputStream stream = new FileInputStream(descriptor.getFileDescriptor());
+             FileChannel channel = stream.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                descriptor.getStartOffset(), descriptor.getLength());
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    private static boolean isTiff(String path) {
+        String lower = path.toLowerCase(java.util.Locale.ROOT);
+        return lower.endsWith(".tif") || lower.endsWith(".tiff");
+    }
+
+    private static String baseName(String path) {
+        int dot = path.lastIndexOf('.');
+        int slash = path.lastIndexOf('/');
+        String base = dot > slash ? path.substring(0, dot) : path;
+        // ALPSMLC30_N053E046_DSM.raw -> ALPSMLC30_N053E046 (заголовок ALPSMLC30_N053E046_HDR.txt)
+        return base.endsWith("_DSM") ? base.substring(0, base.length() - 4) : base;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.mortarcalculator;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Планировщик фонового пересчета результатов.
+ *
+ * Запросы, пришедшие в течение {@link #DEBOUNCE_MS}, сливаются в один расчет.
+ * Каждый запрос увеличивает номер поколения и отменяет расчеты предыдущего
+ * поколения: задачи, еще не начавшиеся, не запускаются, а результаты уже
+ * идущих отбрасываются. Публикуется только результат последнего поколения,
+ * поэтому при частых касаниях задержка ограничена одним расчетом, а не очередью.
+ *
+ * Методы request, track и cancel вызываются только из UI-потока.
+ */
+final class RecalculationScheduler {
+    static final long DEBOUNCE_MS = 60; // пауза, после которой запускается расчет
+
+    /**
+     * Расчет одного поколения. Запускается в UI-потоке.
+     */
+    interface Recalculation {
+        void run(int generation);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger generation = new AtomicInteger();
+    private final List<Future<?>> inFlight = new ArrayList<>();
+    private final Recalculation recalculation;
+    private final Runnable trigger;
+
+    RecalculationScheduler(Recalculation recalculation) {
+        this.recalculation = recalculation;
+        this.trigger = () -> this.recalculation.run(generation.get());
+    }
+
+    /**
+     * Запрашивает пересчет после паузы во вводе
+     */
+    void request() {
+        schedule(DEBOUNCE_MS);
+    }
+
+    /**
+     * Запрашивает пересчет без задержки (однократные изменения настроек)
+     */
+    void requestNow() {
+        schedule(0);
+    }
+
+    private void schedule(long delayMs) {
+        generation.incrementAndGet();
+        cancelInFlight();
+        handler.removeCallbacks(trigger);
+        handler.postDelayed(trigger, delayMs);
+    }
+
+    /**
+     * Регистрирует задачу текущего поколения для отмены следующим запросом
+     */
+    void track(Future<?> future) {
+        inFlight.add(future);
+    }
+
+    /**
+     * Актуален ли еще результат поколения
+     */
+    boolean isCurrent(int generation) {
+        return this.generation.get() == generation;
+    }
+
+    /**
+     * Публикует результат в UI-потоке, если за время расчета не пришел новый запрос
+     */
+    void publish(int generation, Runnable action) {
+        if (!isCurrent(generation)) {
+            return;
+        }
+        handler.post(() -> {
+            if (isCurrent(generation)) {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Отменяет отложенный и идущие расчеты (например, при отсоединении view)
+     */
+    void cancel() {
+        generation.incrementAndGet();
+        handler.removeCallbacks(trigger);
+        cancelInFlight();
+    }
+
+    private void cancelInFlight() {
+        for (Future<?> future : inFlight) {
+            future.cancel(false);
+        }
+        inFlight.clear();
+    }
+}
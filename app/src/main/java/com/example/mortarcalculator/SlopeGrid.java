@@ -0,0 +1,88 @@
+package com.example.mortarcalculator;
+
+/**
+ * Крутизна и экспозиция склонов в узлах {@link ElevationGrid}.
+ *
+ * Считаются один раз при загрузке рельефа центральными разностями и хранятся
+ * по байту на узел: крутизна с шагом 0.5° (0..90°), экспозиция - направление
+ * спуска по часовой стрелке от севера с шагом 360/256°. Запрос - чтение
+ * двух байтов без повторного дифференцирования сетки.
+ */
+final class SlopeGrid {
+    private static final double SLOPE_STEP = 0.5; // градусов на единицу крутизны
+    private static final double ASPECT_STEP = 360.0 / 256.0; // градусов на единицу экспозиции
+
+    final int width;
+    final int height;
+    private final byte[] slope;
+    private final byte[] aspect;
+
+    private SlopeGrid(int width, int height, byte[] slope, byte[] aspect) {
+        this.width = width;
+        this.height = height;
+        this.slope = slope;
+        this.aspect = aspect;
+    }
+
+    /**
+     * Вычисляет крутизну и экспозицию по сетке высот
+     * @param cellWidth шаг сетки с запада на восток в метрах
+     * @param cellHeight шаг сетки с севера на юг в метрах (строки идут с севера)
+     */
+    static SlopeGrid derive(ElevationGrid grid, double cellWidth, double cellHeight) {
+        int width = grid.width;
+        int height = grid.height;
+        byte[] slope = new byte[width * height];
+        byte[] aspect = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            int north = Math.max(0, y - 1);
+            int south = Math.min(height - 1, y + 1);
+            for (int x = 0; x < width; x++) {
+                int west = Math.max(0, x - 1);
+                int east = Math.min(width - 1, x + 1);
+                // Подъем на метр к востоку и к северу; на краях - односторонние разности
+                double riseEast = east > west
+                    ? (grid.sample(east, y) - grid.sample(west, y)) / ((east - west) * cellWidth) : 0.0;
+                double riseNorth = south > north
+                    ? (grid.sample(x, north) - grid.sample(x, south)) / ((south - north) * cellHeight) : 0.0;
+                double gradient = Math.hypot(riseEast, riseNorth);
+
+                int index = y * width + x;
+                slope[index] = (byte) Math.round(Math.toDegrees(Math.atan(gradient)) / SLOPE_STEP);
+                if (gradient > 0) {
+                    // Склон обращен в сторону спуска, против градиента
+                    double downhill = Math.toDegrees(Math.atan2(-riseEast, -riseNorth));
+                    if (downhill < 0) {
+                        downhill += 360.0;
+                    }
+                    aspect[index] = (byte) ((int) Math.round(downhill / ASPECT_STEP) & 0xFF);
+                }
+            }
+        }
+        return new SlopeGrid(width, height, slope, aspect);
+    }
+
+    /**
+     * Крутизна склона в ближайшем узле в градусах
+     */
+    double slope(int x, int y) {
+        return (slope[y * width + x] & 0xFF) * SLOPE_STEP;
+    }
+
+    /**
+     * Направление спуска в ближайшем узле в градусах от севера по часовой стрелке
+     */
+    double aspect(int x, int y) {
+        return (aspect[y * width + x] & 0xFF) * ASPECT_STEP;
+    }
+
+    /**
+     * Подъем рельефа в метрах на метр по горизонтали в направлении azimuth
+     * (отрицательный - спуск)
+     * @param azimuth направление в градусах от севера по часовой стрелке
+     */
+    double rise(int x, int y, double azimuth) {
+        double tangent = Math.tan(Math.toRadians(slope(x, y)));
+        return -tangent * Math.cos(Math.toRadians(azimuth - aspect(x, y)));
+    }
+}
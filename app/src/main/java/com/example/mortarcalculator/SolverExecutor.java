@@ -0,0 +1,77 @@
+package com.example.mortarcalculator;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Пул потоков для баллистических расчетов. Расчеты для разных минометов
+ * независимы (рабочие области интегратора у каждого потока свои), поэтому
+ * выполняются параллельно, а общее время равно самому долгому из них.
+ * Один поток оставляем UI, чтобы интерфейс не подтормаживал во время расчета.
+ *
+ * Задача расчета часто ставится в пул из продолжения другого future
+ * (после чтения высот), и отмена внешнего future до нее не доходит.
+ * Поэтому каждая задача перед началом сама проверяет, нужен ли еще ее
+ * результат, и устаревшая завершается отменой, не занимая поток расчетом.
+ */
+final class SolverExecutor {
+    private static final int THREADS =
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "BallisticSolver-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SolverExecutor() {}
+
+    /**
+     * Запускает расчет траекторий для одного миномета в пуле
+     * @param current нужен ли еще результат; проверяется перед началом расчета
+     */
+    static CompletableFuture<BallisticCalculator.BallisticResult[]> solve(
+            MortarType mortar, AmmoType ammo, double distance, double heightDiff,
+            BallisticCalculator.WeatherConditions weather, BooleanSupplier current) {
+        return CompletableFuture.supplyAsync(() -> {
+            ensureCurrent(current);
+            return BallisticCalculator.calculateTrajectory(mortar, ammo, distance, heightDiff, weather);
+        }, POOL);
+    }
+
+    /**
+     * Запускает расчет с проверкой по рельефу; профиль строится в потоке пула
+     * @param current нужен ли еще результат; проверяется перед началом расчета
+     * @param terrain источник профиля рельефа от миномета к цели
+     */
+    static CompletableFuture<BallisticCalculator.BallisticResult[]> solve(
+            MortarType mortar, AmmoType ammo, double distance, double heightDiff,
+            BallisticCalculator.WeatherConditions weather, BooleanSupplier current,
+            Supplier<TerrainProfile> terrain) {
+        return CompletableFuture.supplyAsync(() -> {
+            ensureCurrent(current);
+            return BallisticCalculator.calculateTrajectory(mortar, ammo, distance, heightDiff, weather,
+                terrain.get());
+        }, POOL);
+    }
+
+    private static void ensureCurrent(BooleanSupplier current) {
+        if (!current.getAsBoolean()) {
+            throw new CancellationException("Stale ballistic calculation");
+        }
+    }
+
+    /**
+     * Пул для остальной фоновой работы, связанной с расчетом (сборка текста результатов)
+     */
+    static ExecutorService pool() {
+        return POOL;
+    }
+}
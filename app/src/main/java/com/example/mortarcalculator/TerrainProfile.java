@@ -0,0 +1,114 @@
+package com.example.mortarcalculator;
+
+/**
+ * Профиль рельефа вдоль линии миномет - цель. Высоты снимаются с DEM один раз
+ * на пару миномет - цель с шагом {@link #STEP} и хранятся относительно высоты
+ * миномета, поэтому проверка траектории на пересечение с рельефом - чтение
+ * из массива, а не двумерный поиск по растру. Боковой снос при этом не учитывается.
+ *
+ * Для каждого узла хранится максимум рельефа от него до конца профиля:
+ * траектория мины выпукла вверх, поэтому шаг, оба конца которого выше
+ * этого максимума, не может задеть рельеф и не проверяется по узлам.
+ *
+ * Уклон местности у цели вдоль линии стрельбы берется из сетки крутизны
+ * и экспозиции {@link DSMReader} и растягивает эллипс рассеивания по дальности.
+ */
+final class TerrainProfile {
+    static final double STEP = 10.0; // шаг профиля по дальности в метрах
+    static final double OVERSHOOT = 0.2; // доля дистанции за целью, покрываемая профилем
+    static final double MUZZLE_CLEARANCE = 30.0; // рельеф ближе к миномету не проверяем
+    static final double TARGET_CLEARANCE = 50.0; // зона у цели, где снаряд снижается к земле
+    static final double MAX_RANGE_STRETCH = 4.0; // предел растяжения эллипса на скользящем падении
+
+    private final float[] heights; // высота рельефа над минометом в узлах профиля
+    private final float[] maxBeyond; // максимум рельефа от узла до конца профиля
+    final double length; // дальность последнего узла в метрах
+    final double targetDistance; // дистанция до цели в метрах
+    final double impactRise; // подъем рельефа у цели на метр дальности, NaN - неизвестен
+
+    private TerrainProfile(float[] heights, double targetDistance, double impactRise) {
+        this.heights = heights;
+        this.length = (heights.length - 1) * STEP;
+        this.targetDistance = targetDistance;
+        this.impactRise = impactRise;
+        this.maxBeyond = new float[heights.length];
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = heights.length - 1; i >= 0; i--) {
+            max = Math.max(max, heights[i]);
+            maxBeyond[i] = max;
+        }
+    }
+
+    /**
+     * Строит профиль по прямой от миномета к цели с запасом за целью
+     * @param originElevation высота миномета в метрах
+     * @param distance дистанция до цели в метрах
+     */
+    static TerrainProfile along(double fromLat, double fromLon, double originElevation,
+                                double toLat, double toLon, double distance) {
+        double length = Math.max(STEP, distance * (1.0 + OVERSHOOT));
+        int count = (int) Math.ceil(length / STEP) + 1;
+        float[] heights = new float[count];
+        double dLat = toLat - fromLat;
+        double dLon = toLon - fromLon;
+        for (int i = 0; i < count; i++) {
+            double fraction = distance > 0 ? i * STEP / distance : 0.0;
+            double elevation = DSMReader.getElevation(fromLat + dLat * fraction, fromLon + dLon * fraction);
+            heights[i] = (float) (elevation - originElevation);
+        }
+        double azimuth = MapProjection.azimuth(fromLat, fromLon, toLat, toLon);
+        return new TerrainProfile(heights, distance, DSMReader.getTerrainRise(toLat, toLon, azimuth));
+    }
+
+    /**
+     * Высота рельефа над минометом на дальности x (линейная интерполяция,
+     * за пределами профиля - крайний узел)
+     */
+    double heightAt(double x) {
+        if (x <= 0) {
+            return heights[0];
+        }
+        double position = x / STEP;
+        int index = (int) position;
+        if (index >= heights.length - 1) {
+            return heights[heights.length - 1];
+        }
+        double w = position - index;
+        return heights[index] * (1 - w) + heights[index + 1] * w;
+    }
+
+    /**
+     * Верхняя граница рельефа на дальностях от x до конца профиля
+     */
+    double maxBeyond(double x) {
+        int index = x <= 0 ? 0 : (int) (x / STEP);
+        return maxBeyond[Math.min(index, maxBeyond.length - 1)];
+    }
+
+    /**
+     * Во сколько раз отклонение по дальности на склоне у цели больше, чем
+     * на горизонтальной плоскости. Снаряд, падающий под углом с тангенсом
+     * descentTangent, при промахе ΔR встречает плоскость с подъемом g на
+     * расстоянии ΔR·tgθ / (tgθ + g): встречный склон сжимает эллипс,
+     * обратный - растягивает.
+     * @param descentTangent тангенс угла падения к горизонту
+     */
+    double rangeStretch(double descentTangent) {
+        if (Double.isNaN(impactRise) || descentTangent <= 0 || Double.isInfinite(descentTangent)) {
+            return 1.0;
+        }
+        double denominator = descentTangent + impactRise;
+        if (denominator <= descentTangent / MAX_RANGE_STRETCH) {
+            return MAX_RANGE_STRETCH;
+        }
+        return descentTangent / denominator;
+    }
+
+    /**
+     * Учитывается ли запас над рельефом на дальности x: вблизи миномета
+     * и в зоне падения у цели траектория закономерно проходит у земли
+     */
+    boolean inClearanceZone(double x) {
+        return x > MUZZLE_CLEARANCE && x < targetDistance - TARGET_CLEARANCE;
+    }
+}
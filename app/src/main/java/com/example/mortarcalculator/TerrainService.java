@@ -0,0 +1,332 @@
+package com.example.mortarcalculator;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Мозаика тайлов рельефа на произвольную область.
+ *
+ * Тайлы индексируются по ячейкам 1°×1°: ячейка хранит тайлы, которые ее
+ * перекрывают, поэтому поиск тайла для точки - одно обращение к HashMap.
+ * Растры открываются при первом запросе и вытесняются по LRU, когда суммарный
+ * объем открытых растров превышает бюджет. Протяженность тайла берется из имени
+ * файла (N053E046, srtm_44_03), поэтому регистрация не открывает файлы.
+ *
+ * Все методы потокобезопасны.
+ */
+public final class TerrainService {
+    private static final String TAG = "TerrainService";
+
+    static final String ASSET_DIR = "dem"; // каталог assets с растрами высот
+    static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    private static final int SCAN_DEPTH = 3;
+
+    // ALOS AW3D30 (ALPSMLC30_N053E046_DSM.tif) и SRTM HGT (N53E046.hgt): юго-западный угол тайла 1°×1°
+    private static final Pattern DEGREE_TILE = Pattern.compile("([NS])(\\d{2,3})([EW])(\\d{3})");
+    // CGIAR SRTM (srtm_44_03.tif): тайлы 5°×5°, столбцы от 180° з.д., строки от 60° с.ш.
+    private static final Pattern SRTM_TILE = Pattern.compile("srtm_(\\d{2})_(\\d{2})");
+
+    /**
+     * Тайл мозаики: протяженность и способ открыть растр
+     */
+    static final class Tile {
+        final String name;
+        final double south, north, west, east;
+        final AssetManager assets; // null для файлов
+        final String path;
+
+        Tile(String name, double south, double north, double west, double east,
+             AssetManager assets, String path) {
+            this.name = name;
+            this.south = south;
+            this.north = north;
+            this.west = west;
+            this.east = east;
+            this.assets = assets;
+            this.path = path;
+        }
+
+        boolean contains(double lat, double lon) {
+            return lat >= south && lat <= north && lon >= west && lon <= east;
+        }
+
+        RasterDem open() throws IOException {
+            return assets != null ? RasterDem.openAsset(assets, path) : RasterDem.openFile(new File(path));
+        }
+    }
+
+    private static final Object LOCK = new Object();
+    // Ячейка 1°×1° -> тайлы, перекрывающие ее, в порядке регистрации.
+    // Массивы не изменяются после публикации, поэтому читаются без блокировки.
+    private static final Map<Integer, Tile[]> INDEX = new HashMap<>();
+    // Открытые растры в порядке последнего обращения
+    private static final LinkedHashMap<Tile, RasterDem> OPEN = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Set<Tile> FAILED = new HashSet<>();
+    // Пути зарегистрированных растров: повторный init (поворот экрана) не дублирует тайлы
+    private static final Set<String> REGISTERED = new HashSet<>();
+    private static long budgetBytes = DEFAULT_BUDGET_BYTES;
+    private static long openBytes;
+
+    private TerrainService() {}
+
+    /**
+     * Регистрирует растры из assets/dem и каталога dem во внутреннем хранилище
+     * (туда складываются загруженные тайлы ALOS/SRTM вместе с заголовками).
+     * Повторный вызов регистрирует только новые файлы.
+     */
+    public static void init(Context context) {
+        AssetManager assets = context.getApplicationContext().getAssets();
+        scanAssets(assets, ASSET_DIR, 0);
+        File dir = new File(context.getFilesDir(), ASSET_DIR);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isRaster(file.getName())) {
+                    registerFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ограничивает объем одновременно открытых растров
+     */
+    public static void setBudgetBytes(long bytes) {
+        synchronized (LOCK) {
+            budgetBytes = bytes;
+            evict();
+        }
+    }
+
+    public static void registerAsset(AssetManager assets, String path) {
+        register(assets, path);
+    }
+
+    public static void registerFile(File file) {
+        register(null, file.getPath());
+    }
+
+    private static void register(AssetManager assets, String path) {
+        String key = (assets != null ? "asset:" : "file:") + path;
+        synchronized (LOCK) {
+            if (!REGISTERED.add(key)) {
+                return;
+            }
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        double[] extent = extentFromName(name);
+        Tile tile;
+        if (extent != null) {
+            tile = new Tile(name, extent[0], extent[1], extent[2], extent[3], assets, path);
+        } else {
+            // Имя без привязки: открываем растр, чтобы узнать его границы
+            try {
+                Tile probe = new Tile(name, 0, 0, 0, 0, assets, path);
+                RasterDem raster = probe.open();
+                DemHeader header = raster.header;
+                tile = new Tile(name, header.south(), header.north(), header.west(), header.east(), assets, path);
+                synchronized (LOCK) {
+                    cache(tile, raster);
+                }
+            } catch (IOException | RuntimeException e) {
+                android.util.Log.w(TAG, "Cannot register DEM " + path + ": " + e.getMessage());
+                synchronized (LOCK) {
+                    REGISTERED.remove(key);
+                }
+                return;
+            }
+        }
+        synchronized (LOCK) {
+            int south = (int) Math.floor(tile.south);
+            int north = (int) Math.ceil(tile.north) - 1;
+            int west = (int) Math.floor(tile.west);
+            int east = (int) Math.ceil(tile.east) - 1;
+            for (int lat = south; lat <= north; lat++) {
+                for (int lon = west; lon <= east; lon++) {
+                    Tile[] tiles = INDEX.get(cell(lat, lon));
+                    Tile[] extended = tiles == null ? new Tile[1] : Arrays.copyOf(tiles, tiles.length + 1);
+                    extended[extended.length - 1] = tile;
+                    INDEX.put(cell(lat, lon), extended);
+                }
+            }
+        }
+        android.util.Log.d(TAG, String.format(Locale.ROOT, "Registered DEM %s: %.4f..%.4f N, %.4f..%.4f E",
+            name, tile.south, tile.north, tile.west, tile.east));
+    }
+
+    /**
+     * Есть ли тайлы, покрывающие точку
+     */
+    public static boolean covers(double lat, double lon) {
+        synchronized (LOCK) {
+            Tile[] tiles = INDEX.get(cell((int) Math.floor(lat), (int) Math.floor(lon)));
+            if (tiles != null) {
+                for (Tile tile : tiles) {
+                    if (tile.contains(lat, lon)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Перекрывает ли хотя бы один тайл область растра
+     */
+    public static boolean covers(MapProjection area) {
+        double south = area.south();
+        double east = area.east();
+        synchronized (LOCK) {
+            for (Tile[] tiles : INDEX.values()) {
+                for (Tile tile : tiles) {
+                    if (tile.west < east && area.west < tile.east && tile.south < area.north && south < tile.north) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Высота местности в точке. На стыке тайлов или в дыре данных одного тайла
+     * берется следующий тайл, покрывающий точку.
+     * @return высота в метрах или NaN, если данных нет
+     */
+    public static double getElevation(double lat, double lon) {
+        Tile[] tiles;
+        synchronized (LOCK) {
+            tiles = INDEX.get(cell((int) Math.floor(lat), (int) Math.floor(lon)));
+        }
+        if (tiles == null) {
+            return Double.NaN;
+        }
+        for (Tile tile : tiles) {
+            if (!tile.contains(lat, lon)) {
+                continue;
+            }
+            RasterDem raster = raster(tile);
+            if (raster == null) {
+                continue;
+            }
+            double elevation = raster.getElevation(lat, lon);
+            if (!Double.isNaN(elevation)) {
+                return elevation;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Открытый растр тайла; открывает и кэширует его при первом обращении
+     */
+    private static RasterDem raster(Tile tile) {
+        synchronized (LOCK) {
+            RasterDem raster = OPEN.get(tile);
+            if (raster != null || FAILED.contains(tile)) {
+                return raster;
+            }
+        }
+        // Открываем вне блокировки: параллельное открытие одного тайла безвредно
+        RasterDem opened;
+        try {
+            opened = tile.open();
+        } catch (IOException | RuntimeException e) {
+            android.util.Log.w(TAG, "Cannot open DEM " + tile.path + ": " + e.getMessage());
+            synchronized (LOCK) {
+                FAILED.add(tile);
+            }
+            return null;
+        }
+        synchronized (LOCK) {
+            RasterDem existing = OPEN.get(tile);
+            if (existing != null) {
+                return existing;
+            }
+            cache(tile, opened);
+            return opened;
+        }
+    }
+
+    private static void cache(Tile tile, RasterDem raster) {
+        OPEN.put(tile, raster);
+        openBytes += raster.sizeBytes();
+        evict();
+    }
+
+    /**
+     * Закрывает самые давно использованные растры, пока объем не уложится в бюджет.
+     * Последний открытый растр не вытесняется, даже если он один больше бюджета.
+     */
+    private static void evict() {
+        Iterator<Map.Entry<Tile, RasterDem>> iterator = OPEN.entrySet().iterator();
+        while (openBytes > budgetBytes && OPEN.size() > 1 && iterator.hasNext()) {
+            Map.Entry<Tile, RasterDem> eldest = iterator.next();
+            openBytes -= eldest.getValue().sizeBytes();
+            iterator.remove();
+            android.util.Log.d(TAG, "Evicted DEM " + eldest.getKey().name);
+        }
+    }
+
+    private static int cell(int lat, int lon) {
+        return (lat + 90) * 360 + (lon + 180);
+    }
+
+    /**
+     * Протяженность тайла по имени файла: {south, north, west, east} или null
+     */
+    static double[] extentFromName(String name) {
+        Matcher srtm = SRTM_TILE.matcher(name.toLowerCase(Locale.ROOT));
+        if (srtm.find()) {
+            double west = -180.0 + (Integer.parseInt(srtm.group(1)) - 1) * 5.0;
+            double north = 60.0 - (Integer.parseInt(srtm.group(2)) - 1) * 5.0;
+            return new double[]{north - 5.0, north, west, west + 5.0};
+        }
+        Matcher degree = DEGREE_TILE.matcher(name.toUpperCase(Locale.ROOT));
+        if (degree.find()) {
+            double south = Integer.parseInt(degree.group(2)) * (degree.group(1).equals("S") ? -1 : 1);
+            double west = Integer.parseInt(degree.group(4)) * (degree.group(3).equals("W") ? -1 : 1);
+            return new double[]{south, south + 1.0, west, west + 1.0};
+        }
+        return null;
+    }
+
+    private static void scanAssets(AssetManager assets, String dir, int depth) {
+        String[] names;
+        try {
+            names = assets.list(dir);
+        } catch (IOException e) {
+            return;
+        }
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            String path = dir + "/" + name;
+            if (isRaster(name)) {
+                registerAsset(assets, path);
+            } else if (depth < SCAN_DEPTH && name.indexOf('.') < 0) {
+                scanAssets(assets, path, depth + 1);
+            }
+        }
+    }
+
+    private static boolean isRaster(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".tif") || lower.endsWith(".tiff") || lower.endsWith(".raw")
+            || lower.endsWith(".bil") || lower.endsWith(".hgt");
+    }
+}
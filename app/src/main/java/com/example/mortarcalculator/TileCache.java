@@ -0,0 +1,354 @@
+package com.example.mortarcalculator;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LongSparseArray;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Кэш декодированных тайлов карты.
+ *
+ * Первый уровень - LRU в памяти с бюджетом в байтах: повторный показ уже
+ * виденного тайла не декодирует PNG. Ключи - примитивные long (LongSparseArray
+ * и список по давности использования), поэтому запрос тайла в кадре ничего
+ * не выделяет, в отличие от LruCache с упаковкой ключа. Вытесненные Bitmap не освобождаются,
+ * а попадают в пул и служат буфером следующего декодирования (inBitmap),
+ * поэтому при прокрутке память под пиксели не выделяется заново.
+ *
+ * Второй, необязательный уровень - каталог с тайлами, уже переведенными
+ * в RGB_565: чтение такого файла - копирование пикселей без распаковки PNG.
+ *
+ * Вытесненный тайл мог быть нарисован в текущем кадре, а кадр передается
+ * на отрисовку уже после onDraw, поэтому в пул он попадает только через
+ * кадр, на втором вызове {@link #endFrame()}.
+ *
+ * {@link #get} и {@link #endFrame} вызываются из UI-потока, {@link #load} -
+ * из одного фонового потока декодирования.
+ */
+final class TileCache {
+    private static final String TAG = "TileCache";
+    private static final int POOL_SIZE = 8; // Bitmap в пуле повторного использования
+    private static final int DISK_HEADER = 8; // ширина и высота тайла в файле кэша
+
+    private final AssetManager assets;
+    private final File diskDir; // null - кэш на диске отключен
+    private final int memoryBytes;
+    // Тайлы в памяти, пул и вытесненные тайлы делят UI-поток и поток декодирования
+    private final Object lock = new Object();
+    private final LongSparseArray<Entry> memory = new LongSparseArray<>();
+    private Entry newest; // голова списка по давности использования
+    private Entry oldest;
+    private int memorySize; // байт в памяти
+    private final List<Bitmap> released = new ArrayList<>(); // вытеснены в текущем кадре
+    private final List<Bitmap> retired = new ArrayList<>(); // вытеснены в прошлом кадре
+    private final ArrayDeque<Bitmap> pool = new ArrayDeque<>();
+    /**
+     * Тайл в памяти, звено двусвязного списка по давности использования
+     */
+    private static final class Entry {
+        final long key;
+        final Bitmap bitmap;
+        final int bytes;
+        Entry newer;
+        Entry older;
+
+        Entry(long key, Bitmap bitmap) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.bytes = bitmap.getAllocationByteCount();
+        }
+    }
+
+    // Буферы декодирования принадлежат фоновому потоку
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private ByteBuffer diskBuffer;
+
+    /**
+     * @param memoryBytes бюджет декодированных тайлов в памяти
+     * @param diskDir каталог кэша RGB_565 или null
+     */
+    TileCache(AssetManager assets, int memoryBytes, File diskDir) {
+        this.assets = assets;
+        this.diskDir = diskDir != null && (diskDir.isDirectory() || diskDir.mkdirs()) ? diskDir : null;
+        this.memoryBytes = memoryBytes;
+        // Тайлы непрозрачны: RGB_565 вдвое компактнее ARGB_8888
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+    }
+
+    /**
+     * Бюджет памяти по умолчанию: восьмая часть кучи
+     */
+    static int defaultMemoryBytes() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * Тайл из памяти без декодирования
+     */
+    Bitmap get(long key) {
+        synchronized (lock) {
+            Entry entry = memory.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry != newest) {
+                unlink(entry);
+                linkNewest(entry);
+            }
+            return entry.bitmap;
+        }
+    }
+
+    /**
+     * Тайл из памяти, с диска или из assets
+     * @param name имя файла в кэше на диске
+     * @return null, если тайла нет
+     */
+    Bitmap load(long key, String assetPath, String name) {
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        File cached = diskDir != null ? new File(diskDir, name) : null;
+        if (cached != null && cached.isFile()) {
+            bitmap = readDisk(cached);
+        }
+        if (bitmap == null) {
+            bitmap = decode(assetPath);
+            if (bitmap == null) {
+                return null;
+            }
+            if (cached != null) {
+                writeDisk(cached, bitmap);
+            }
+        }
+        put(key, bitmap);
+        return bitmap;
+    }
+
+    private void put(long key, Bitmap bitmap) {
+        Entry entry = new Entry(key, bitmap);
+        synchronized (lock) {
+            Entry previous = memory.get(key);
+            if (previous != null) {
+                remove(previous);
+            }
+            memory.put(key, entry);
+            linkNewest(entry);
+            memorySize += entry.bytes;
+            // Вытесняем самые давние, но не только что добавленный тайл
+            while (memorySize > memoryBytes && oldest != entry) {
+                remove(oldest);
+            }
+        }
+    }
+
+    /**
+     * Убирает тайл из памяти; Bitmap освобождается через кадр. Вызывать под lock
+     */
+    private void remove(Entry entry) {
+        memory.remove(entry.key);
+        unlink(entry);
+        memorySize -= entry.bytes;
+        released.add(entry.bitmap);
+    }
+
+    private void linkNewest(Entry entry) {
+        entry.older = newest;
+        entry.newer = null;
+        if (newest != null) {
+            newest.newer = entry;
+        }
+        newest = entry;
+        if (oldest == null) {
+            oldest = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else {
+            newest = entry.older;
+        }
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else {
+            oldest = entry.newer;
+        }
+        entry.newer = null;
+        entry.older = null;
+    }
+
+    /**
+     * Конец кадра: вытесненные в нем тайлы больше не рисуются и могут быть
+     * переиспользованы
+     */
+    void endFrame() {
+        synchronized (lock) {
+            for (Bitmap bitmap : retired) {
+                if (pool.size() < POOL_SIZE && bitmap.isMutable() && !bitmap.isRecycled()) {
+                    pool.push(bitmap);
+                } else {
+                    bitmap.recycle();
+                }
+            }
+            retired.clear();
+            retired.addAll(released);
+            released.clear();
+        }
+    }
+
+    /**
+     * Выгружает все тайлы из памяти и освобождает пул. Выгруженные тайлы
+     * могут быть в кадре, который еще рисуется, поэтому они, как и при
+     * вытеснении, освобождаются через {@link #endFrame()}, а если кадров
+     * больше не будет - сборщиком мусора вместе с кэшем.
+     */
+    void clear() {
+        synchronized (lock) {
+            while (oldest != null) {
+                remove(oldest);
+            }
+            // В пуле только тайлы, не рисовавшиеся уже два кадра
+            for (Bitmap bitmap : pool) {
+                bitmap.recycle();
+            }
+            pool.clear();
+        }
+    }
+
+    private Bitmap pooled() {
+        synchronized (lock) {
+            return pool.poll();
+        }
+    }
+
+    private void repool(Bitmap bitmap) {
+        synchronized (lock) {
+            pool.push(bitmap);
+        }
+    }
+
+    private Bitmap decode(String assetPath) {
+        Bitmap reuse = pooled();
+        options.inBitmap = reuse;
+        try {
+            Bitmap bitmap;
+            try (InputStream stream = assets.open(assetPath)) {
+                bitmap = BitmapFactory.decodeStream(stream, null, options);
+            } catch (IllegalArgumentException e) {
+                if (reuse == null) {
+                    throw e;
+                }
+                // Буфер из пула не подошел по размеру: декодируем в новый
+                reuse.recycle();
+                reuse = null;
+                options.inBitmap = null;
+                try (InputStream stream = assets.open(assetPath)) {
+                    bitmap = BitmapFactory.decodeStream(stream, null, options);
+                }
+            }
+            if (bitmap == null && reuse != null) {
+                repool(reuse);
+            }
+            return bitmap;
+        } catch (IOException e) {
+            if (reuse != null) {
+                repool(reuse);
+            }
+            return null;
+        } finally {
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * Читает тайл RGB_565 из кэша на диске в Bitmap из пула
+     */
+    private Bitmap readDisk(File file) {
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            int size = (int) channel.size();
+            ByteBuffer buffer = diskBuffer(size);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // читаем до конца файла
+            }
+            buffer.flip();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            if (width <= 0 || height <= 0 || buffer.remaining() != width * height * 2) {
+                throw new IOException("Corrupt tile cache entry");
+            }
+            Bitmap bitmap = reusable(width, height);
+            bitmap.copyPixelsFromBuffer(buffer);
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping tile cache entry " + file.getName() + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeDisk(File file, Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.RGB_565) {
+            return; // в кэше на диске только RGB_565
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        ByteBuffer buffer = diskBuffer(DISK_HEADER + width * height * 2);
+        buffer.putInt(width).putInt(height);
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        // Пишем во временный файл: оборванная запись не оставит битый тайл
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write tile cache entry " + file.getName() + ": " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    private Bitmap reusable(int width, int height) {
+        synchronized (lock) {
+            for (Bitmap bitmap : pool) {
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                        && bitmap.getConfig() == Bitmap.Config.RGB_565) {
+                    pool.remove(bitmap);
+                    return bitmap;
+                }
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+    }
+
+    private ByteBuffer diskBuffer(int size) {
+        if (diskBuffer == null || diskBuffer.capacity() < size) {
+            diskBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        diskBuffer.clear();
+        diskBuffer.limit(size);
+        return diskBuffer;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.mortarcalculator;
+
+import android.graphics.Bitmap;
+import android.util.LongSparseArray;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Очередь фонового декодирования тайлов с приоритетами.
+ *
+ * Декодирование идет в одном фоновом потоке, UI-поток только ставит запросы.
+ * Приоритет запроса - квадрат расстояния от центра тайла до центра экрана:
+ * первыми декодируются тайлы, на которые смотрит пользователь. Запрос
+ * остается в таблице, пока тайл декодируется, поэтому повторный запрос
+ * того же тайла не ставит его в очередь второй раз. Каждый кадр
+ * переставляет запросы по новым приоритетам и снимает запросы тайлов,
+ * ушедших с экрана или с текущего уровня, поэтому при прокрутке очередь не
+ * копит устаревшую работу.
+ *
+ * Запросы и отсутствующие тайлы хранятся по примитивным ключам, а пути к
+ * тайлам собираются только в потоке декодирования: повторный запрос уже
+ * стоящего в очереди тайла в кадре ничего не выделяет.
+ */
+final class TileLoader {
+    private static final double REORDER_SHIFT = 64.0; // переставлять, если центр тайла сместился больше чем на 64 пикселя
+
+    private final TileCache cache;
+    private final String dir;
+    private final String extension;
+    private final Runnable onLoaded; // вызывается из фонового потока после каждого тайла
+    private final ThreadPoolExecutor executor;
+    // Запросы и тайлы, которых нет в пирамиде; общие для UI-потока и потока декодирования
+    private final Object lock = new Object();
+    private final LongSparseArray<Request> pending = new LongSparseArray<>();
+    private final LongSparseArray<Boolean> missing = new LongSparseArray<>();
+    private int frame; // номер текущего кадра, только UI-поток
+
+    /**
+     * Запрос на декодирование; приоритет меняется только вне очереди
+     */
+    private final class Request implements Runnable, Comparable<Request> {
+        final long key;
+        final int zoom;
+        final int x;
+        final int row; // строка TMS, отсчитывается с юга
+        float dx, dy; // смещение центра тайла от центра экрана при постановке в очередь
+        double priority;
+        int frame; // последний кадр, в котором тайл был нужен; только UI-поток
+        boolean running; // тайл декодируется; под lock
+
+        Request(long key, int zoom, int x, int row) {
+            this.key = key;
+            this.zoom = zoom;
+            this.x = x;
+            this.row = row;
+        }
+
+        void place(float dx, float dy) {
+            this.dx = dx;
+            this.dy = dy;
+            this.priority = (double) dx * dx + (double) dy * dy;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                if (pending.get(key) != this) {
+                    return; // отменен
+                }
+                running = true;
+            }
+            Bitmap bitmap = cache.load(key, dir + "/" + zoom + "/" + x + "/" + row + "." + extension,
+                zoom + "_" + x + "_" + row + ".565");
+            synchronized (lock) {
+                pending.remove(key);
+                if (bitmap == null) {
+                    missing.put(key, Boolean.TRUE);
+                }
+            }
+            onLoaded.run();
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            return Double.compare(priority, other.priority);
+        }
+    }
+
+    /**
+     * @param dir каталог пирамиды в assets
+     * @param extension расширение файлов тайлов
+     */
+    TileLoader(TileCache cache, String dir, String extension, Runnable onLoaded) {
+        this.cache = cache;
+        this.dir = dir;
+        this.extension = extension;
+        this.onLoaded = onLoaded;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "TileDecoder");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+    }
+
+    /**
+     * Нет ли тайла в пирамиде (выяснилось при декодировании)
+     */
+    boolean isMissing(long key) {
+        synchronized (lock) {
+            return missing.indexOfKey(key) >= 0;
+        }
+    }
+
+    /**
+     * Ставит тайл в очередь или обновляет приоритет уже стоящего запроса;
+     * запрос остается в очереди до конца кадра, в котором его не повторили.
+     * Тайл, который уже декодируется, повторно не ставится.
+     * @param row строка тайла в TMS (с юга)
+     * @param dx смещение центра тайла от центра экрана по X в пикселях
+     * @param dy то же по Y; ближние к центру декодируются раньше
+     */
+    void request(long key, int zoom, int x, int row, float dx, float dy) {
+        Request existing;
+        synchronized (lock) {
+            existing = pending.get(key);
+            if (existing == null) {
+                Request request = new Request(key, zoom, x, row);
+                request.place(dx, dy);
+                request.frame = frame;
+                pending.put(key, request);
+                executor.execute(request);
+                return;
+            }
+            if (existing.running) {
+                return;
+            }
+        }
+        existing.frame = frame;
+        if (Math.hypot(dx - existing.dx, dy - existing.dy) <= REORDER_SHIFT) {
+            return;
+        }
+        // Переставляем запрос, если он еще не взят в работу
+        if (executor.getQueue().remove(existing)) {
+            existing.place(dx, dy);
+            executor.execute(existing);
+        }
+    }
+
+    /**
+     * Конец кадра: снимает запросы тайлов, не запрошенных в этом кадре
+     */
+    void endFrame() {
+        retain(frame);
+        frame++;
+    }
+
+    /**
+     * Снимает все запросы, еще не взятые в работу
+     */
+    void cancelAll() {
+        retain(frame + 1);
+    }
+
+    private void retain(int currentFrame) {
+        synchronized (lock) {
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                Request request = pending.valueAt(i);
+                if (request.frame != currentFrame && executor.getQueue().remove(request)) {
+                    pending.removeAt(i);
+                }
+            }
+        }
+    }
+}
@@ -15,32 +15,49 @@ import android.widget.TextView;
 import androidx.annotation.Nullable;
 import androidx.appcompat.widget.AppCompatImageView;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 import android.util.Log;
 import androidx.fragment.app.FragmentActivity;
 import androidx.appcompat.app.AppCompatActivity;
 
 public class TouchableImageView extends AppCompatImageView {
     private ImageView mapImageView;
+    private MapTileLayer tileLayer; // карта из тайлов; null - карта показывается в mapImageView
     private TextView targetAnglesText;
     private final List<GeoPoint> mortars = new ArrayList<>();
     private GeoPoint targetPoint;
-    private final Paint paint = new Paint();
-    private final Paint circlePaint = new Paint();
     private final int[] mortarColors = {Color.RED, Color.GREEN, Color.YELLOW, Color.CYAN, Color.MAGENTA};
+    // Кисти и подписи настраиваются один раз: onDraw ничего не выделяет,
+    // а кистям следа меняет толщину только при смене масштаба
+    private final Paint[] mortarPaints = new Paint[mortarColors.length]; // значок и подпись
+    private final Paint[] rangePaints = new Paint[mortarColors.length]; // круг дальности
+    private final Paint[] trackPaints = new Paint[mortarColors.length]; // след траектории
+    private final Paint[] ellipsePaints = new Paint[mortarColors.length]; // эллипс рассеивания
+    private final String[] mortarLabels = new String[mortarColors.length];
+    private final Paint targetPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float[] crosshair = new float[8]; // два отрезка перекрестья цели
+    private static final float TARGET_CROSS_SIZE = 20;
+    private static final float TRACK_STROKE_WIDTH = 3; // толщина следа на экране
+    // Траектории последнего опубликованного расчета в пикселях карты; только UI-поток
+    private List<TrajectoryOverlay> overlays = Collections.emptyList();
+    private float overlayScale = Float.NaN; // масштаб, под который настроена толщина следа
     
-    // Константы для размера карты (35км x 35км)
-    private static final float MAP_SIZE_METERS = 35000f;
-    private static final float MAP_DEGREES = MAP_SIZE_METERS / 111000f; // 1 градус ≈ 111 км на этой широте
-    private static final float METERS_PER_DEGREE = 111000f; // метров в одном градусе
-    private static final int MAP_RESOLUTION = 4096; // разрешение карты в пикселях
-    private static final float METERS_PER_PIXEL = MAP_SIZE_METERS / MAP_RESOLUTION;
+    private static final double SIGHT_HEIGHT = 2.0; // высота линии визирования над точкой в метрах
 
     // Для обработки масштабирования и перемещения
     private ScaleGestureDetector scaleDetector;
     private GestureDetector gestureDetector;
     private Matrix matrix = new Matrix();
     private float[] matrixValues = new float[9];
+    // Буферы пересчета координат: все отметки переводятся пакетом, без выделения памяти
+    private final Matrix inverse = new Matrix();
+    private final float[] touchPixels = new float[2];
+    private final double[] touchGeo = new double[2];
+    private double[] markerGeo = new double[12]; // широта и долгота минометов, затем цели
+    private float[] markerPixels = new float[12]; // их координаты на карте или на экране
     private static final float MIN_ZOOM = 0.1f;
     private static final float MAX_ZOOM = 5.0f;
 
@@ -48,6 +65,10 @@ public class TouchableImageView extends AppCompatImageView {
 
     private BallisticCalculator.WeatherConditions currentWeather;
 
+    // Пересчет результатов в фоне: сливает частые запросы и отменяет устаревшие расчеты
+    private final RecalculationScheduler recalculation =
+        new RecalculationScheduler(this::calculateAndDisplayResults);
+
     private static final String TAG = "TouchableImageView";
 
     public TouchableImageView(Context context) {
@@ -61,14 +82,38 @@ public class TouchableImageView extends AppCompatImageView {
     }
 
     private void init(Context context) {
-        paint.setTextSize(30);
-        paint.setAntiAlias(true);
-        paint.setStyle(Paint.Style.FILL);
+        for (int i = 0; i < mortarColors.length; i++) {
+            Paint marker = new Paint(Paint.ANTI_ALIAS_FLAG);
+            marker.setColor(mortarColors[i]);
+            marker.setStyle(Paint.Style.FILL);
+            marker.setTextSize(30);
+            mortarPaints[i] = marker;
+
+            Paint range = new Paint();
+            range.setColor(mortarColors[i]);
+            range.setStyle(Paint.Style.STROKE);
+            range.setStrokeWidth(2);
+            range.setAlpha(128);
+            rangePaints[i] = range;
+
+            Paint track = new Paint(Paint.ANTI_ALIAS_FLAG);
+            track.setColor(mortarColors[i]);
+            track.setStyle(Paint.Style.STROKE);
+            track.setAlpha(192);
+            trackPaints[i] = track;
+
+            Paint ellipse = new Paint(Paint.ANTI_ALIAS_FLAG);
+            ellipse.setColor(mortarColors[i]);
+            ellipse.setStyle(Paint.Style.FILL);
+            ellipse.setAlpha(80);
+            ellipsePaints[i] = ellipse;
+
+            mortarLabels[i] = "M" + (i + 1);
+        }
 
-        circlePaint.setColor(Color.WHITE);
-        circlePaint.setStyle(Paint.Style.STROKE);
-        circlePaint.setStrokeWidth(2);
-        circlePaint.setAlpha(128);
+        targetPaint.setColor(Color.RED);
+        targetPaint.setStyle(Paint.Style.STROKE);
+        targetPaint.setStrokeWidth(2);
 
         // Инициализация метеоусловий по умолчанию
         currentWeather = new BallisticCalculator.WeatherConditions(0.0, 1013.25, 50.0, 0.0, 0.0);
@@ -138,19 +183,46 @@ public class TouchableImageView extends AppCompatImageView {
         this.mapImageView.setImageMatrix(matrix);
     }
 
+    /**
+     * Рисовать карту из пирамиды тайлов под отметками
+     */
+    public void setTileLayer(MapTileLayer layer) {
+        if (tileLayer != null) {
+            tileLayer.clear();
+        }
+        tileLayer = layer;
+        if (layer != null) {
+            // Декодированные в фоне тайлы появляются со следующим кадром
+            layer.setOnTileLoaded(this::postInvalidateOnAnimation);
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        recalculation.cancel();
+        if (tileLayer != null) {
+            tileLayer.clear();
+        }
+        super.onDetachedFromWindow();
+    }
+
     public void setTargetAnglesText(TextView textView) {
         this.targetAnglesText = textView;
         // Если уже есть данные для отображения, показываем их
         if (mortars.size() > 0 && targetPoint != null) {
-            calculateAndDisplayResults();
+            recalculation.requestNow();
         } else {
             updateStatusText();
         }
     }
 
     public void reset() {
+        // Идущий расчет иначе опубликовал бы старые результаты после сброса
+        recalculation.cancel();
         mortars.clear();
         targetPoint = null;
+        overlays = Collections.emptyList();
         matrix.reset();
         mapImageView.setImageMatrix(matrix);
         if (targetAnglesText != null) {
@@ -159,107 +231,85 @@ public class TouchableImageView extends AppCompatImageView {
         invalidate();
     }
 
-    private float metersToPixels(float meters) {
-        // Преобразуем метры в пиксели экрана
-        return (meters / MAP_SIZE_METERS) * mapImageView.getWidth();
+    /**
+     * Переводит точку экрана в координаты изображения карты (touchPixels)
+     * и в географические координаты (touchGeo, с прижатием к краю карты)
+     */
+    private void screenToGeo(float x, float y) {
+        matrix.invert(inverse);
+        touchPixels[0] = x;
+        touchPixels[1] = y;
+        inverse.mapPoints(touchPixels);
+        MapProjection.map().toGeo(touchPixels, touchGeo, 1);
     }
 
-    private double[] convertToLocalCoordinates(double targetLat, double targetLon, GeoPoint mortar) {
-        // Convert to local coordinates in meters
-        double dLon = targetLon - mortar.getLongitude();
-        double dLat = targetLat - mortar.getLatitude();
-        
-        // Convert degree differences to meters using the map scale
-        double dx = dLon * (MAP_SIZE_METERS / MAP_DEGREES);
-        double dy = dLat * (MAP_SIZE_METERS / MAP_DEGREES);
-        
-        // Add detailed debug logging
-        Log.d("MortarCalc", String.format(
-            "Coordinate conversion:\n" +
-            "Mortar: (%.6f, %.6f)\n" +
-            "Target: (%.6f, %.6f)\n" +
-            "dx: %.1fm, dy: %.1fm\n" +
-            "Total distance: %.1fm",
-            mortar.getLatitude(), mortar.getLongitude(),
-            targetLat, targetLon,
-            dx, dy,
-            Math.sqrt(dx*dx + dy*dy)
-        ));
-
-        return new double[]{dx, dy};
+    /**
+     * Переводит минометы и цель в координаты изображения карты одним проходом
+     * (в markerPixels: минометы по порядку, цель последней)
+     * @return количество точек
+     */
+    private int projectMarkers(MapProjection projection) {
+        int count = mortars.size() + (targetPoint != null ? 1 : 0);
+        if (markerGeo.length < 2 * count) {
+            markerGeo = new double[2 * count];
+            markerPixels = new float[2 * count];
+        }
+        for (int i = 0; i < mortars.size(); i++) {
+            GeoPoint mortar = mortars.get(i);
+            markerGeo[2 * i] = mortar.getLatitude();
+            markerGeo[2 * i + 1] = mortar.getLongitude();
+        }
+        if (targetPoint != null) {
+            markerGeo[2 * count - 2] = targetPoint.getLatitude();
+            markerGeo[2 * count - 1] = targetPoint.getLongitude();
+        }
+        projection.toPixels(markerGeo, markerPixels, count);
+        return count;
     }
 
     private void handleSingleTap(float x, float y) {
         if (mortars.isEmpty()) return;
         
-        // Get coordinates in map space
-        Matrix inverse = new Matrix();
-        matrix.invert(inverse);
-        float[] points = new float[] { x, y };
-        inverse.mapPoints(points);
-        
-        // Convert to normalized coordinates (0-1 range)
-        float normalizedX = points[0] / MAP_RESOLUTION;
-        float normalizedY = points[1] / MAP_RESOLUTION;
-        
-        // Clamp coordinates to map bounds
-        normalizedX = Math.max(0, Math.min(1, normalizedX));
-        normalizedY = Math.max(0, Math.min(1, normalizedY));
-        
-        // Convert to geographic coordinates
-        double lon = 47.7 + normalizedX * MAP_DEGREES; // Обновлено для масштаба 35км
-        double lat = 30.4 + (1 - normalizedY) * MAP_DEGREES; // Обновлено для масштаба 35км
+        // Переводим точку экрана в координаты карты (с прижатием к ее краю)
+        screenToGeo(x, y);
+        double lat = touchGeo[0];
+        double lon = touchGeo[1];
         
         Log.d("MortarCalc", String.format(
-            "Single tap: screen(%.1f, %.1f) -> map(%.1f, %.1f) -> normalized(%.3f, %.3f) -> geo(%.6f, %.6f)",
-            x, y, points[0], points[1], normalizedX, normalizedY, lat, lon
+            "Single tap: screen(%.1f, %.1f) -> map(%.1f, %.1f) -> geo(%.6f, %.6f)",
+            x, y, touchPixels[0], touchPixels[1], lat, lon
         ));
         
-        targetPoint = new GeoPoint(lat, lon, 0.0); // Устанавливаем начальную высоту 0 метров
-        calculateAndDisplayResults();
+        targetPoint = GeoPoint.onTerrain(lat, lon); // Высота цели берется из рельефа в фоне
+        recalculation.request();
         invalidate();
     }
 
     private void handleDoubleTap(float x, float y) {
         if (mortars.size() >= 5) return;
         
-        // Get coordinates in map space
-        Matrix inverse = new Matrix();
-        matrix.invert(inverse);
-        float[] points = new float[] { x, y };
-        inverse.mapPoints(points);
-        
-        // Convert to normalized coordinates (0-1 range)
-        float normalizedX = points[0] / MAP_RESOLUTION;
-        float normalizedY = points[1] / MAP_RESOLUTION;
-        
-        // Clamp coordinates to map bounds
-        normalizedX = Math.max(0, Math.min(1, normalizedX));
-        normalizedY = Math.max(0, Math.min(1, normalizedY));
-        
-        // Convert to geographic coordinates
-        double lon = 47.7 + normalizedX * MAP_DEGREES; // Обновлено для масштаба 35км
-        double lat = 30.4 + (1 - normalizedY) * MAP_DEGREES; // Обновлено для масштаба 35км
+        // Переводим точку экрана в координаты карты (с прижатием к ее краю)
+        screenToGeo(x, y);
+        double lat = touchGeo[0];
+        double lon = touchGeo[1];
         
         Log.d("MortarCalc", String.format(
-            "Double tap: screen(%.1f, %.1f) -> map(%.1f, %.1f) -> normalized(%.3f, %.3f) -> geo(%.6f, %.6f)",
-            x, y, points[0], points[1], normalizedX, normalizedY, lat, lon
+            "Double tap: screen(%.1f, %.1f) -> map(%.1f, %.1f) -> geo(%.6f, %.6f)",
+            x, y, touchPixels[0], touchPixels[1], lat, lon
         ));
         
-        mortars.add(new GeoPoint(lat, lon));
+        mortars.add(GeoPoint.onTerrain(lat, lon));
         updateStatusText();
         if (targetPoint != null) {
-            calculateAndDisplayResults();
+            recalculation.request();
         }
         invalidate();
     }
 
     private void handleLongPress(float x, float y) {
         // Получаем координаты в пространстве карты
-        Matrix inverse = new Matrix();
-        matrix.invert(inverse);
-        float[] points = new float[] { x, y };
-        inverse.mapPoints(points);
+        screenToGeo(x, y);
+        int count = projectMarkers(MapProjection.map());
 
         // Проверяем, попали ли мы в миномет или цель
         selectedMortar = null;
@@ -267,30 +317,18 @@ public class TouchableImageView extends AppCompatImageView {
         float touchRadius = 40; // радиус касания в пикселях
 
         // Проверяем минометы
-        for (GeoPoint mortar : mortars) {
-            float normalizedLon = (float) ((mortar.getLongitude() - 47.7) / MAP_DEGREES);
-            float normalizedLat = (float) (1 - (mortar.getLatitude() - 30.4) / MAP_DEGREES);
-            
-            float baseX = normalizedLon * MAP_RESOLUTION;
-            float baseY = normalizedLat * MAP_RESOLUTION;
-            
-            if (Math.abs(points[0] - baseX) < touchRadius && 
-                Math.abs(points[1] - baseY) < touchRadius) {
-                selectedMortar = mortar;
+        for (int i = 0; i < mortars.size(); i++) {
+            if (Math.abs(touchPixels[0] - markerPixels[2 * i]) < touchRadius &&
+                Math.abs(touchPixels[1] - markerPixels[2 * i + 1]) < touchRadius) {
+                selectedMortar = mortars.get(i);
                 break;
             }
         }
 
         // Проверяем цель
         if (targetPoint != null) {
-            float normalizedLon = (float) ((targetPoint.getLongitude() - 47.7) / MAP_DEGREES);
-            float normalizedLat = (float) (1 - (targetPoint.getLatitude() - 30.4) / MAP_DEGREES);
-            
-            float baseX = normalizedLon * MAP_RESOLUTION;
-            float baseY = normalizedLat * MAP_RESOLUTION;
-            
-            if (Math.abs(points[0] - baseX) < touchRadius && 
-                Math.abs(points[1] - baseY) < touchRadius) {
+            if (Math.abs(touchPixels[0] - markerPixels[2 * count - 2]) < touchRadius &&
+                Math.abs(touchPixels[1] - markerPixels[2 * count - 1]) < touchRadius) {
                 touchedTarget = true;
             }
         }
@@ -332,64 +370,181 @@ public class TouchableImageView extends AppCompatImageView {
         this.currentWeather = weather;
         if (targetPoint != null) {
             Log.d(TAG, "Recalculating results with new weather conditions");
-            calculateAndDisplayResults();
+            recalculation.requestNow();
+        }
+    }
+
+    /**
+     * Входные данные и результат расчета для одного миномета.
+     * Снимок делается в UI-потоке, расчет и форматирование идут в пуле решателя.
+     */
+    private static final class MortarSolve {
+        final int index;
+        final String color;
+        final MortarType mortarType;
+        final AmmoType ammoType;
+        final double distance;
+        final double azimuth;
+        final double mortarLat, mortarLon, targetLat, targetLon;
+        volatile double mortarElevation; // высоты известны, когда прочитан рельеф
+        volatile double elevationDiff;
+        final CompletableFuture<BallisticCalculator.BallisticResult[]> trajectories;
+
+        MortarSolve(int index, String color, MortarType mortarType, AmmoType ammoType,
+                    double distance, double azimuth, GeoPoint mortar, GeoPoint target,
+                    BallisticCalculator.WeatherConditions weather, BooleanSupplier current) {
+            this.index = index;
+            this.color = color;
+            this.mortarType = mortarType;
+            this.ammoType = ammoType;
+            this.distance = distance;
+            this.azimuth = azimuth;
+            this.mortarLat = mortar.getLatitude();
+            this.mortarLon = mortar.getLongitude();
+            this.targetLat = target.getLatitude();
+            this.targetLon = target.getLongitude();
+            boolean terrainAware = BallisticCalculator.isTerrainAware();
+            // Превышение известно, когда прочитаны высоты обеих точек; UI-поток не ждет рельеф.
+            // Отмена trajectories не доходит до задачи, поставленной в пул из thenCombine,
+            // поэтому задача сама проверяет current и устаревшая не занимает пул расчетом
+            this.trajectories = mortar.elevationAsync().thenCombine(target.elevationAsync(),
+                (mortarElevation, targetElevation) -> {
+                    this.mortarElevation = mortarElevation;
+                    this.elevationDiff = targetElevation - mortarElevation;
+                    if (BallisticLog.DEBUG) {
+                        BallisticLog.debug("TouchableImageView",
+                            "Mortar %d elevation diff: %.1f m", index + 1, elevationDiff);
+                    }
+                    if (!terrainAware) {
+                        return SolverExecutor.solve(mortarType, ammoType, distance, elevationDiff, weather, current);
+                    }
+                    // Профиль рельефа строится один раз на пару миномет - цель в потоке пула
+                    return SolverExecutor.solve(mortarType, ammoType, distance, elevationDiff, weather, current,
+                        () -> TerrainProfile.along(mortarLat, mortarLon, mortarElevation,
+                            targetLat, targetLon, distance));
+                })
+                .thenCompose(solve -> solve);
         }
     }
 
-    private void calculateAndDisplayResults() {
+    private void calculateAndDisplayResults(int generation) {
         if (mortars.isEmpty() || targetPoint == null || targetAnglesText == null) {
+            if (!overlays.isEmpty()) {
+                overlays = Collections.emptyList();
+                invalidate();
+            }
             return;
         }
 
-        StringBuilder results = new StringBuilder();
-        results.append("Результаты расчета:\n\n");
         android.util.Log.d("TouchableImageView", "Calculating results for " + mortars.size() + " mortars");
 
+        // Снимаем входные данные в UI-потоке и запускаем расчеты всех минометов параллельно.
+        // Боеприпас передаем явно: общий объект MortarType не меняем из потоков расчета.
+        final BallisticCalculator.WeatherConditions weather = currentWeather;
+        final MapProjection projection = MapProjection.map();
+        final List<MortarSolve> solves = new ArrayList<>(mortars.size());
         for (int i = 0; i < mortars.size(); i++) {
             GeoPoint mortar = mortars.get(i);
             String color = String.format("#%06X", (0xFFFFFF & mortarColors[i]));
 
-            // Рассчитываем дистанцию и превышение
+            // Рассчитываем дистанцию; превышение считается, когда высоты точек прочитаны
             double distance = calculateDistance(mortar, targetPoint);
-            double elevationDiff = targetPoint.getElevation() - mortar.getElevation();
 
             android.util.Log.d("TouchableImageView", String.format(
                 "Mortar %d calculation:\n" +
                 "Type: %s\n" +
                 "Ammo: %s\n" +
                 "Distance: %.1f m\n" +
-                "Elevation diff: %.1f m\n" +
                 "Weather: temp=%.1f°C, pressure=%.1f hPa, wind=%.1f m/s @ %.1f°",
                 i+1,
                 mortar.getMortarType().getName(),
                 mortar.getAmmoType().getName(),
                 distance,
-                elevationDiff,
-                currentWeather.temperature,
-                currentWeather.pressure,
-                currentWeather.windSpeed,
-                currentWeather.windDirection
+                weather.temperature,
+                weather.pressure,
+                weather.windSpeed,
+                weather.windDirection
             ));
 
-            // Синхронизируем тип боеприпаса в объекте типа миномета с типом в объекте миномета
-            mortar.getMortarType().setAmmoType(mortar.getAmmoType());
-            
-            // Проверяем, что тип боеприпаса действительно установился
-            android.util.Log.d("TouchableImageView", String.format(
-                "Synchronized ammo types:\n" +
-                "GeoPoint ammo: %s\n" +
-                "MortarType ammo: %s",
-                mortar.getAmmoType().getName(),
-                mortar.getMortarType().getAmmoType().getName()
-            ));
+            MortarSolve solve = new MortarSolve(i, color, mortar.getMortarType(), mortar.getAmmoType(),
+                distance, calculateAzimuth(mortar, targetPoint), mortar, targetPoint, weather,
+                () -> recalculation.isCurrent(generation));
+            // Следующий запрос отменит расчеты, которые еще не начались
+            recalculation.track(solve.trajectories);
+            solves.add(solve);
+        }
 
-            // Рассчитываем траектории
-            BallisticCalculator.BallisticResult[] trajectories = BallisticCalculator.calculateTrajectory(
-                mortar.getMortarType(),
-                distance,
-                elevationDiff,
-                currentWeather
-            );
+        // Ждем все расчеты, собираем текст и пути траекторий в потоке пула и публикуем
+        // их в UI-потоке, если за это время не пришел новый запрос
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[solves.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = solves.get(i).trajectories;
+        }
+        CompletableFuture<Published> published = CompletableFuture.allOf(futures)
+            .thenApplyAsync(ignored -> recalculation.isCurrent(generation)
+                ? new Published(formatResults(solves, weather), buildOverlays(solves, projection)) : null,
+                SolverExecutor.pool());
+        recalculation.track(published);
+        published.whenComplete((results, error) -> {
+            if (!recalculation.isCurrent(generation)) {
+                return; // устаревшее поколение, в том числе отмененное
+            }
+            if (error != null) {
+                Log.e(TAG, "Ballistic calculation failed", error);
+                return;
+            }
+            recalculation.publish(generation, () -> {
+                targetAnglesText.setText(results.text);
+                targetAnglesText.setVisibility(android.view.View.VISIBLE);
+                overlays = results.overlays;
+                invalidate();
+            });
+        });
+    }
+
+    /**
+     * Результаты одного поколения, готовые к показу
+     */
+    private static final class Published {
+        final String text;
+        final List<TrajectoryOverlay> overlays;
+
+        Published(String text, List<TrajectoryOverlay> overlays) {
+            this.text = text;
+            this.overlays = overlays;
+        }
+    }
+
+    /**
+     * Пути траекторий для карты: по одной на миномет, рекомендуемая
+     * (самая быстрая из достижимых)
+     */
+    private static List<TrajectoryOverlay> buildOverlays(List<MortarSolve> solves, MapProjection projection) {
+        List<TrajectoryOverlay> overlays = new ArrayList<>(solves.size());
+        for (MortarSolve solve : solves) {
+            BallisticCalculator.BallisticResult[] trajectories = solve.trajectories.join();
+            int shown = BallisticCalculator.fastestClearSolution(trajectories);
+            if (shown < 0) {
+                continue;
+            }
+            // Кладем траекторию на линию миномет - цель, без поправки прицела на ветер
+            double azimuth = MapProjection.azimuth(solve.mortarLat, solve.mortarLon,
+                solve.targetLat, solve.targetLon);
+            TrajectoryOverlay overlay = TrajectoryOverlay.build(solve.index, solve.mortarLat, solve.mortarLon,
+                azimuth, trajectories[shown], projection);
+            if (overlay != null) {
+                overlays.add(overlay);
+            }
+        }
+        return overlays;
+    }
+
+    private static String formatResults(List<MortarSolve> solves, BallisticCalculator.WeatherConditions weather) {
+        StringBuilder results = new StringBuilder();
+        results.append("Результаты расчета:\n\n");
+
+        for (MortarSolve solve : solves) {
+            BallisticCalculator.BallisticResult[] trajectories = solve.trajectories.join();
 
             // Логируем результаты расчета
             if (trajectories[0].isValid || trajectories[1].isValid) {
@@ -397,7 +552,7 @@ public class TouchableImageView extends AppCompatImageView {
                     "Trajectories for mortar %d:\n" +
                     "High angle: %.1f°\n" +
                     "Low angle: %.1f°",
-                    i+1,
+                    solve.index+1,
                     trajectories[0].isValid ? trajectories[0].angle : -1,
                     trajectories[1].isValid ? trajectories[1].angle : -1
                 ));
@@ -410,26 +565,29 @@ public class TouchableImageView extends AppCompatImageView {
                     "• Азимут: %.1f°\n" +
                     "• Дистанция: %.0fм\n" +
                     "• Превышение: %.1fм\n" +
+                    "• Прямая видимость: %s\n" +
                     "• Метеоусловия:\n" +
                     "  - Температура: %.1f°C\n" +
                     "  - Давление: %.1f гПа\n" +
                     "  - Влажность: %.1f%%\n" +
                     "  - Ветер: %.1f m/s @ %.1f°\n",
-                    i+1,
-                    color,
-                    mortar.getMortarType().getName(),
-                    mortar.getAmmoType().getName(),
-                    calculateAzimuth(mortar, targetPoint),
-                    distance,
-                    elevationDiff,
-                    currentWeather.temperature,
-                    currentWeather.pressure,
-                    currentWeather.humidity,
-                    currentWeather.windSpeed,
-                    currentWeather.windDirection
+                    solve.index+1,
+                    solve.color,
+                    solve.mortarType.getName(),
+                    solve.ammoType.getName(),
+                    solve.azimuth,
+                    solve.distance,
+                    solve.elevationDiff,
+                    lineOfSight(solve) ? "есть" : "нет",
+                    weather.temperature,
+                    weather.pressure,
+                    weather.humidity,
+                    weather.windSpeed,
+                    weather.windDirection
             ));
 
-            if (trajectories[0].isValid || trajectories[1].isValid) {
+            if (trajectories[0].isValid || trajectories[1].isValid
+                    || trajectories[0].terrainHit || trajectories[1].terrainHit) {
                 results.append("• Навесная траектория:\n");
                 if (trajectories[0].isValid) {
                     results.append(String.format(
@@ -440,10 +598,11 @@ public class TouchableImageView extends AppCompatImageView {
                             trajectories[0].angle,
                             trajectories[0].maxHeight,
                             trajectories[0].timeOfFlight,
-                            mortar.getAmmoType().getFragmentationRadius()
+                            solve.ammoType.getFragmentationRadius()
                     ));
+                    results.append(clearance(trajectories[0]));
                 } else {
-                    results.append("  - Недоступна\n");
+                    results.append(unavailable(trajectories[0]));
                 }
 
                 results.append("• Настильная траектория:\n");
@@ -456,24 +615,54 @@ public class TouchableImageView extends AppCompatImageView {
                             trajectories[1].angle,
                             trajectories[1].maxHeight,
                             trajectories[1].timeOfFlight,
-                            mortar.getAmmoType().getFragmentationRadius()
+                            solve.ammoType.getFragmentationRadius()
                     ));
+                    results.append(clearance(trajectories[1]));
                 } else {
-                    results.append("  - Недоступна\n");
+                    results.append(unavailable(trajectories[1]));
+                }
+
+                // С учетом рельефа подсказываем самую быструю из проходящих над ним траекторий
+                int fastest = BallisticCalculator.fastestClearSolution(trajectories);
+                if (fastest >= 0 && !Double.isNaN(trajectories[fastest].minClearance)) {
+                    results.append(String.format("• Рекомендуется: %s (быстрее, рельеф пройден)\n",
+                        fastest == 0 ? "навесная" : "настильная"));
                 }
             } else {
                 results.append(String.format(
                         "Цель вне досягаемости (%.0f м)\n" +
                         "Допустимая дальность: %.0f - %.0f м\n",
-                        distance,
-                        mortar.getMortarType().getMinRange(),
-                        mortar.getMortarType().getMaxRange()
+                        solve.distance,
+                        solve.mortarType.getMinRange(),
+                        solve.mortarType.getMaxRange()
                 ));
             }
             results.append("\n");
         }
-        targetAnglesText.setText(results.toString());
-        targetAnglesText.setVisibility(android.view.View.VISIBLE);
+        return results.toString();
+    }
+
+    /**
+     * Видимость цели от миномета по карте высот (запрос к пирамиде высот)
+     */
+    private static boolean lineOfSight(MortarSolve solve) {
+        return DSMReader.lineOfSight(
+            solve.mortarLat, solve.mortarLon, solve.mortarElevation + SIGHT_HEIGHT,
+            solve.targetLat, solve.targetLon, solve.mortarElevation + solve.elevationDiff + SIGHT_HEIGHT);
+    }
+
+    private static String clearance(BallisticCalculator.BallisticResult trajectory) {
+        if (Double.isNaN(trajectory.minClearance)) {
+            return "";
+        }
+        return String.format("  - Запас над рельефом: %.0fм\n", trajectory.minClearance);
+    }
+
+    private static String unavailable(BallisticCalculator.BallisticResult trajectory) {
+        if (trajectory.terrainHit) {
+            return String.format("  - Перекрыта рельефом на %.0fм\n", trajectory.impactX);
+        }
+        return "  - Недоступна\n";
     }
 
     private void updateStatusText() {
@@ -494,12 +683,9 @@ public class TouchableImageView extends AppCompatImageView {
     }
 
     private double calculateAzimuth(GeoPoint from, GeoPoint to) {
-        double dLon = Math.toRadians(to.getLongitude() - from.getLongitude());
-        double lat1 = Math.toRadians(from.getLatitude());
-        double lat2 = Math.toRadians(to.getLatitude());
-        double y = Math.sin(dLon) * Math.cos(lat2);
-        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(dLon);
-        double azimuth = Math.toDegrees(Math.atan2(y, x));
+        // Азимут в той же проекции, что и дистанция
+        double azimuth = MapProjection.azimuth(from.getLatitude(), from.getLongitude(),
+            to.getLatitude(), to.getLongitude());
         
         // Корректируем азимут с учетом ветра
         if (currentWeather != null && currentWeather.windSpeed > 0) {
@@ -541,68 +727,77 @@ public class TouchableImageView extends AppCompatImageView {
         matrix.getValues(matrixValues);
         float currentScale = matrixValues[Matrix.MSCALE_X];
         
+        MapProjection projection = MapProjection.map();
+        if (tileLayer != null) {
+            tileLayer.draw(canvas, matrix, projection, getWidth(), getHeight());
+        }
+        drawOverlays(canvas, currentScale);
+
+        // Переводим все отметки на экран одним проходом
+        int count = projectMarkers(projection);
+        matrix.mapPoints(markerPixels, 0, markerPixels, 0, count);
+        
         // Draw mortars and their range circles
         for (int i = 0; i < mortars.size(); i++) {
             GeoPoint mortar = mortars.get(i);
-            
-            // Convert geographic coordinates to normalized map coordinates
-            float normalizedLon = (float) ((mortar.getLongitude() - 47.7) / MAP_DEGREES);
-            float normalizedLat = (float) (1 - (mortar.getLatitude() - 30.4) / MAP_DEGREES); // Flip Y coordinate
-            
-            // Convert to pixel coordinates
-            float baseX = normalizedLon * MAP_RESOLUTION;
-            float baseY = normalizedLat * MAP_RESOLUTION;
-            
-            // Apply current transformation matrix
-            float[] points = new float[] { baseX, baseY };
-            matrix.mapPoints(points);
-            float x = points[0];
-            float y = points[1];
+            float x = markerPixels[2 * i];
+            float y = markerPixels[2 * i + 1];
             
             // Draw maximum range circle using the mortar's actual maximum range
             float maxRange = (float) mortar.getMortarType().getMaxRange();
             // Преобразуем максимальную дальность в пиксели
-            float radiusPixels = maxRange * (MAP_RESOLUTION / MAP_SIZE_METERS);
-            
-            paint.setColor(mortarColors[i]);
-            circlePaint.setColor(mortarColors[i]);
-            circlePaint.setStyle(Paint.Style.STROKE);
-            circlePaint.setStrokeWidth(2);
-            circlePaint.setAlpha(128);
-            canvas.drawCircle(x, y, radiusPixels * currentScale, circlePaint);
+            float radiusPixels = (float) (maxRange * projection.pixelsPerMeter());
+            canvas.drawCircle(x, y, radiusPixels * currentScale, rangePaints[i]);
             
             // Draw mortar icon (fixed size regardless of zoom)
-            paint.setStyle(Paint.Style.FILL);
-            canvas.drawCircle(x, y, 10, paint);
-            canvas.drawText("M" + (i + 1), x + 15, y - 15, paint);
+            canvas.drawCircle(x, y, 10, mortarPaints[i]);
+            canvas.drawText(mortarLabels[i], x + 15, y - 15, mortarPaints[i]);
         }
 
         // Draw target if set
         if (targetPoint != null) {
-            // Convert geographic coordinates to normalized map coordinates
-            float normalizedLon = (float) ((targetPoint.getLongitude() - 47.7) / MAP_DEGREES);
-            float normalizedLat = (float) (1 - (targetPoint.getLatitude() - 30.4) / MAP_DEGREES); // Flip Y coordinate
-            
-            // Convert to pixel coordinates
-            float baseX = normalizedLon * MAP_RESOLUTION;
-            float baseY = normalizedLat * MAP_RESOLUTION;
-            
-            // Apply current transformation matrix
-            float[] points = new float[] { baseX, baseY };
-            matrix.mapPoints(points);
-            float x = points[0];
-            float y = points[1];
+            float x = markerPixels[2 * count - 2];
+            float y = markerPixels[2 * count - 1];
             
             // Draw target crosshair
-            paint.setColor(Color.RED);
-            paint.setStyle(Paint.Style.STROKE);
-            paint.setStrokeWidth(2);
-            float crossSize = 20;
-            canvas.drawLine(x - crossSize, y, x + crossSize, y, paint);
-            canvas.drawLine(x, y - crossSize, x, y + crossSize, paint);
+            crosshair[0] = x - TARGET_CROSS_SIZE;
+            crosshair[1] = y;
+            crosshair[2] = x + TARGET_CROSS_SIZE;
+            crosshair[3] = y;
+            crosshair[4] = x;
+            crosshair[5] = y - TARGET_CROSS_SIZE;
+            crosshair[6] = x;
+            crosshair[7] = y + TARGET_CROSS_SIZE;
+            canvas.drawLines(crosshair, targetPaint);
         }
     }
 
+    /**
+     * Следы траекторий и эллипсы рассеивания. Пути лежат в пикселях карты,
+     * поэтому кадр только умножает холст на матрицу вида, не перестраивая их
+     */
+    private void drawOverlays(Canvas canvas, float currentScale) {
+        List<TrajectoryOverlay> overlays = this.overlays;
+        if (overlays.isEmpty()) {
+            return;
+        }
+        if (currentScale != overlayScale) {
+            // Толщина задается в пикселях карты: делим на масштаб, чтобы на экране она не менялась
+            for (Paint track : trackPaints) {
+                track.setStrokeWidth(TRACK_STROKE_WIDTH / currentScale);
+            }
+            overlayScale = currentScale;
+        }
+        int saveCount = canvas.save();
+        canvas.concat(matrix);
+        for (int i = 0; i < overlays.size(); i++) {
+            TrajectoryOverlay overlay = overlays.get(i);
+            canvas.drawPath(overlay.ellipse, ellipsePaints[overlay.index]);
+            canvas.drawPath(overlay.track, trackPaints[overlay.index]);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
     public void setInitialMatrix(Matrix initialMatrix) {
         matrix.set(initialMatrix);
         invalidate();
@@ -669,7 +864,7 @@ public class TouchableImageView extends AppCompatImageView {
                 android.util.Log.d("TouchableImageView", "Recalculating results after settings update");
                 
                 // Гарантируем полное обновление расчетов
-                calculateAndDisplayResults();
+                recalculation.requestNow();
                 
                 targetAnglesText.setVisibility(android.view.View.VISIBLE);
                 
@@ -685,7 +880,7 @@ public class TouchableImageView extends AppCompatImageView {
         if (targetPoint != null) {
             targetPoint.setElevation(elevation);
             // Пересчитываем результаты с новой высотой цели
-            calculateAndDisplayResults();
+            recalculation.requestNow();
             invalidate();
         }
     }
@@ -696,36 +891,24 @@ public class TouchableImageView extends AppCompatImageView {
             selectedMortar = null;
             updateStatusText();
             if (targetPoint != null) {
-                calculateAndDisplayResults();
+                recalculation.request();
             }
             invalidate();
         }
     }
 
     private double calculateDistance(GeoPoint from, GeoPoint to) {
-        // Рассчитываем разницу координат
-        double dLon = to.getLongitude() - from.getLongitude();
-        double dLat = to.getLatitude() - from.getLatitude();
-        
-        // Переводим разницу в градусах в метры с учетом реального масштаба
-        double dx = dLon * METERS_PER_DEGREE * Math.cos(Math.toRadians((from.getLatitude() + to.getLatitude()) / 2));
-        double dy = dLat * METERS_PER_DEGREE;
-        
-        // Рассчитываем прямое расстояние по теореме Пифагора
-        double distance = Math.sqrt(dx * dx + dy * dy);
+        double distance = MapProjection.distance(from.getLatitude(), from.getLongitude(),
+            to.getLatitude(), to.getLongitude());
         
         // Добавляем отладочный вывод
         Log.d(TAG, String.format(
             "Distance calculation:\n" +
             "From: (%.6f, %.6f)\n" +
             "To: (%.6f, %.6f)\n" +
-            "dLon: %.6f°, dLat: %.6f°\n" +
-            "dx: %.1fm, dy: %.1fm\n" +
             "Distance: %.1fm",
             from.getLatitude(), from.getLongitude(),
             to.getLatitude(), to.getLongitude(),
-            dLon, dLat,
-            dx, dy,
             distance
         ));
         
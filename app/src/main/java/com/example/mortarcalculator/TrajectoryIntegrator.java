@@ -0,0 +1,577 @@
+package com.example.mortarcalculator;
+
+/**
+ * Интегратор траектории мины без выделения памяти в цикле расчета.
+ * Все постоянные снаряда вычисляются один раз в {@link Projectile},
+ * а точки траектории пишутся в переиспользуемый {@link Workspace}.
+ * Поддерживает явный метод Эйлера с фиксированным шагом и адаптивный
+ * метод Дормана–Принса 5(4) с поиском точки падения как события.
+ * Если задан профиль рельефа, полет также прекращается в первой точке
+ * пересечения траектории с рельефом.
+ */
+final class TrajectoryIntegrator {
+    static final double TIME_STEP = 0.2; // шаг времени в секундах
+    static final double MAX_TIME = 150.0; // максимальное время полета
+    static final int MAX_TRAJECTORY_POINTS = 200; // емкость буферов траектории
+    private static final int SAMPLE_EVERY_STEPS = 20; // сохраняем каждую 20-ю точку
+    private static final double GRAVITY = 9.81; // м/с²
+
+    // Параметры адаптивного шага Дормана–Принса
+    private static final double RELATIVE_TOLERANCE = 1e-6;
+    private static final double ABSOLUTE_TOLERANCE = 1e-3; // метры и м/с
+    private static final double INITIAL_STEP = 0.5; // начальный шаг в секундах
+    private static final double MIN_STEP = 1e-4;
+    private static final double MAX_STEP = 2.0; // ограничение шага для точек отрисовки и поиска вершины
+    private static final double SAFETY = 0.9;
+    private static final int EVENT_ITERATIONS = 30; // итерации уточнения момента падения
+    private static final double EVENT_TOLERANCE = 1e-4; // допуск по высоте в метрах
+    private static final int TERRAIN_ITERATIONS = 30; // итерации уточнения точки встречи с рельефом
+
+    // Коэффициенты таблицы Бутчера метода Дормана–Принса
+    private static final double C2 = 1.0 / 5.0, C3 = 3.0 / 10.0, C4 = 4.0 / 5.0, C5 = 8.0 / 9.0;
+    private static final double A21 = 1.0 / 5.0;
+    private static final double A31 = 3.0 / 40.0, A32 = 9.0 / 40.0;
+    private static final double A41 = 44.0 / 45.0, A42 = -56.0 / 15.0, A43 = 32.0 / 9.0;
+    private static final double A51 = 19372.0 / 6561.0, A52 = -25360.0 / 2187.0,
+                                A53 = 64448.0 / 6561.0, A54 = -212.0 / 729.0;
+    private static final double A61 = 9017.0 / 3168.0, A62 = -355.0 / 33.0, A63 = 46732.0 / 5247.0,
+                                A64 = 49.0 / 176.0, A65 = -5103.0 / 18656.0;
+    private static final double B1 = 35.0 / 384.0, B3 = 500.0 / 1113.0, B4 = 125.0 / 192.0,
+                                B5 = -2187.0 / 6784.0, B6 = 11.0 / 84.0;
+    // Разность между решениями 5-го и 4-го порядка (оценка локальной ошибки)
+    private static final double E1 = 71.0 / 57600.0, E3 = -71.0 / 16695.0, E4 = 71.0 / 1920.0,
+                                E5 = -17253.0 / 339200.0, E6 = 22.0 / 525.0, E7 = -1.0 / 40.0;
+
+    private static final int STATE_SIZE = 6; // x, y, z, vx, vy, vz
+
+    private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    private TrajectoryIntegrator() {}
+
+    /**
+     * Постоянные снаряда, не зависящие от шага интегрирования
+     */
+    static final class Projectile {
+        final double muzzleVelocity; // начальная скорость м/с
+        final double minElevation; // минимальный угол возвышения
+        final double maxElevation; // максимальный угол возвышения
+        final double rangeLimit; // граница по дальности для прекращения расчета
+        final double dragFactor; // 0.5 * S / m, умножается на Cd, плотность и квадрат скорости
+        final DragCurve dragCurve; // Cd от числа Маха
+
+        Projectile(MortarType mortar, AmmoType ammo) {
+            this.muzzleVelocity = mortar.getMuzzleVelocity();
+            this.minElevation = mortar.getMinElevation();
+            this.maxElevation = mortar.getMaxElevation();
+            this.rangeLimit = mortar.getMaxRange() * 1.2;
+            double radius = mortar.getCaliber() / 2000.0;
+            double crossSection = Math.PI * radius * radius;
+            this.dragFactor = 0.5 * crossSection / ammo.getWeight();
+            this.dragCurve = ammo.getDragCurve();
+        }
+    }
+
+    /**
+     * Рабочая область одного расчета. Буферы выделяются один раз на поток
+     * и перезаписываются при каждом вызове {@link #integrate}.
+     */
+    static final class Workspace {
+        final double[] x = new double[MAX_TRAJECTORY_POINTS];
+        final double[] y = new double[MAX_TRAJECTORY_POINTS];
+        final double[] z = new double[MAX_TRAJECTORY_POINTS];
+        int count; // количество сохраненных точек
+        double time; // время полета в секундах
+        double maxHeight; // максимальная высота в метрах (без масштабирования)
+        boolean hit; // достигнут ли уровень цели или рельеф
+        boolean terrainHit; // полет прерван рельефом
+        double minClearance; // наименьший запас над рельефом вне зон миномета и цели
+        double impactX; // координата X точки падения
+        double impactY; // высота точки падения
+        double impactZ; // боковое отклонение точки падения
+        double impactError; // погрешность попадания в метрах
+        double descentTangent; // тангенс угла падения к горизонту по скорости в точке падения
+        int evaluations; // количество вычислений правой части
+
+        // Буферы стадий метода Дормана–Принса
+        private final double[] state = new double[STATE_SIZE];
+        private final double[] next = new double[STATE_SIZE];
+        private final double[] stage = new double[STATE_SIZE];
+        private final double[] k1 = new double[STATE_SIZE];
+        private final double[] k2 = new double[STATE_SIZE];
+        private final double[] k3 = new double[STATE_SIZE];
+        private final double[] k4 = new double[STATE_SIZE];
+        private final double[] k5 = new double[STATE_SIZE];
+        private final double[] k6 = new double[STATE_SIZE];
+        private final double[] k7 = new double[STATE_SIZE];
+
+        private void reset() {
+            count = 0;
+            time = 0.0;
+            maxHeight = 0.0;
+            hit = false;
+            terrainHit = false;
+            minClearance = Double.POSITIVE_INFINITY;
+            impactX = 0.0;
+            impactY = 0.0;
+            impactZ = 0.0;
+            impactError = Double.MAX_VALUE;
+            descentTangent = Double.POSITIVE_INFINITY;
+            evaluations = 0;
+        }
+
+        /**
+         * Сохраняет точку траектории. Когда буфер заполнен, последняя ячейка
+         * перезаписывается, поэтому конечная точка (падение) не теряется.
+         */
+        private void record(double px, double py, double pz) {
+            int index = count < MAX_TRAJECTORY_POINTS ? count++ : MAX_TRAJECTORY_POINTS - 1;
+            x[index] = px;
+            y[index] = py;
+            z[index] = pz;
+        }
+
+        /**
+         * Угол падения по вектору скорости в точке падения
+         */
+        private void descend(double vx, double vy, double vz) {
+            double run = Math.hypot(vx, vz);
+            descentTangent = run > 0 ? -vy / run : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Возвращает рабочую область текущего потока
+     */
+    static Workspace workspace() {
+        return WORKSPACE.get();
+    }
+
+    /**
+     * Интегрирует траекторию и записывает результат в рабочую область
+     * @param mode метод интегрирования
+     * @param projectile постоянные снаряда
+     * @param weather метеоусловия
+     * @param angle угол возвышения в градусах (уже скорректированный)
+     * @param distance дистанция до цели в метрах
+     * @param heightDiff превышение цели в метрах
+     * @param out рабочая область для результата
+     */
+    static void integrate(BallisticCalculator.IntegratorMode mode, Projectile projectile,
+                          BallisticCalculator.WeatherConditions weather,
+                          double angle, double distance, double heightDiff, Workspace out) {
+        integrate(mode, projectile, weather, angle, distance, heightDiff, null, out);
+    }
+
+    /**
+     * Интегрирует траекторию с проверкой пересечения с рельефом
+     * @param terrain профиль рельефа вдоль линии стрельбы или null для плоской местности
+     */
+    static void integrate(BallisticCalculator.IntegratorMode mode, Projectile projectile,
+                          BallisticCalculator.WeatherConditions weather,
+                          double angle, double distance, double heightDiff,
+                          TerrainProfile terrain, Workspace out) {
+        out.reset();
+        AtmosphereProfile atmosphere = weather.atmosphere();
+        if (mode == BallisticCalculator.IntegratorMode.EULER) {
+            integrateEuler(projectile, weather, atmosphere, angle, distance, heightDiff, terrain, out);
+        } else {
+            integrateDormandPrince(projectile, weather, atmosphere, angle, distance, heightDiff, terrain, out);
+        }
+    }
+
+    /**
+     * Явный метод Эйлера с фиксированным шагом {@link #TIME_STEP}
+     */
+    private static void integrateEuler(Projectile projectile, BallisticCalculator.WeatherConditions weather,
+                                       AtmosphereProfile atmosphere, double angle, double distance, double heightDiff,
+                                       TerrainProfile terrain, Workspace out) {
+
+        double angleRad = Math.toRadians(angle);
+        double sinAngle = Math.sin(angleRad);
+        // Чем больше угол, тем меньше фактическая начальная скорость (снижение до 15% при максимальном угле)
+        double v0 = projectile.muzzleVelocity * (1.0 - 0.15 * sinAngle);
+
+        double x = 0.0, y = 0.0, z = 0.0;
+        double vx = v0 * Math.cos(angleRad);
+        double vy = v0 * sinAngle;
+        double vz = 0.0;
+
+        double windRad = Math.toRadians(weather.windDirection);
+        double windX = weather.windSpeed * Math.sin(windRad);
+        double windZ = weather.windSpeed * Math.cos(windRad);
+
+        double dragFactor = projectile.dragFactor;
+        double rangeLimit = projectile.rangeLimit;
+
+        double time = 0.0;
+        double lastY = 0.0;
+        boolean isAscending = true;
+        int pointCount = 0;
+
+        out.record(x, y, z);
+
+        while (time < MAX_TIME) {
+            double airDensity = atmosphere.density(y);
+            out.evaluations++;
+
+            double vxRel = vx - windX;
+            double vyRel = vy;
+            double vzRel = vz - windZ;
+            double velocity = Math.sqrt(vxRel * vxRel + vyRel * vyRel + vzRel * vzRel);
+
+            // dragForce / (velocity * mass) = 0.5 * rho * Cd * S * v / m
+            double cd = projectile.dragCurve.cd(velocity * atmosphere.inverseSoundSpeed);
+            double k = airDensity * cd * dragFactor * velocity;
+
+            vx += -k * vxRel * TIME_STEP;
+            vy += (-GRAVITY - k * vyRel) * TIME_STEP;
+            vz += -k * vzRel * TIME_STEP;
+
+            x += vx * TIME_STEP;
+            y += vy * TIME_STEP;
+            z += vz * TIME_STEP;
+
+            time += TIME_STEP;
+
+            if (isAscending && y < lastY) {
+                // Мы достигли пика траектории
+                out.maxHeight = lastY;
+                isAscending = false;
+            }
+
+            if (pointCount % SAMPLE_EVERY_STEPS == 0) {
+                out.record(x, y, z);
+            }
+            pointCount++;
+
+            // Встреча с рельефом на отрезке шага (линейная интерполяция между концами)
+            if (terrain != null && x > TerrainProfile.MUZZLE_CLEARANCE) {
+                double clearance = y - terrain.heightAt(x);
+                if (terrain.inClearanceZone(x)) {
+                    out.minClearance = Math.min(out.minClearance, clearance);
+                }
+                if (clearance <= 0) {
+                    double prevX = x - vx * TIME_STEP;
+                    double prevZ = z - vz * TIME_STEP;
+                    double prevClearance = lastY - terrain.heightAt(prevX);
+                    double ratio = prevClearance > 0 ? prevClearance / (prevClearance - clearance) : 0.0;
+                    out.hit = true;
+                    out.terrainHit = true;
+                    out.impactX = prevX + vx * TIME_STEP * ratio;
+                    out.impactZ = prevZ + vz * TIME_STEP * ratio;
+                    out.impactY = terrain.heightAt(out.impactX);
+                    double dx = out.impactX - distance;
+                    out.impactError = Math.sqrt(dx * dx + out.impactZ * out.impactZ);
+                    out.descend(vx, vy, vz);
+                    out.record(out.impactX, out.impactY, out.impactZ);
+                    break;
+                }
+            }
+
+            // Падение засчитываем только на нисходящей ветви
+            if (y <= heightDiff && vy < 0) {
+                // Точка пересечения с уровнем цели (интерполяция)
+                double ratio;
+                if (Math.abs(lastY - y) < 0.0001) { // защита от деления на ноль
+                    ratio = 0.5;
+                } else {
+                    ratio = (lastY - heightDiff) / (lastY - y);
+                }
+                if (ratio < 0 || ratio > 1.0) {
+                    ratio = 0.5;
+                }
+
+                out.hit = true;
+                out.impactX = (x - vx * TIME_STEP) + vx * TIME_STEP * ratio;
+                out.impactZ = (z - vz * TIME_STEP) + vz * TIME_STEP * ratio;
+                out.impactY = heightDiff;
+                double dx = out.impactX - distance;
+                out.impactError = Math.sqrt(dx * dx + out.impactZ * out.impactZ);
+                out.descend(vx, vy, vz);
+                out.record(out.impactX, out.impactY, out.impactZ);
+                break;
+            }
+            lastY = y;
+
+            if (Math.abs(x) > rangeLimit || Math.abs(z) > rangeLimit || (vy < 0 && y < heightDiff - 100)) {
+                break;
+            }
+        }
+
+        out.time = time;
+    }
+
+    /**
+     * Адаптивный метод Дормана–Принса 5(4). Момент падения на уровень цели
+     * находится как корень кубического эрмитова интерполянта высоты внутри шага,
+     * поэтому точность попадания не зависит от величины последнего шага.
+     */
+    private static void integrateDormandPrince(Projectile projectile,
+                                               BallisticCalculator.WeatherConditions weather,
+                                               AtmosphereProfile atmosphere,
+                                               double angle, double distance, double heightDiff,
+                                               TerrainProfile terrain, Workspace out) {
+        double angleRad = Math.toRadians(angle);
+        double sinAngle = Math.sin(angleRad);
+        double v0 = projectile.muzzleVelocity * (1.0 - 0.15 * sinAngle);
+
+        double windRad = Math.toRadians(weather.windDirection);
+        double windX = weather.windSpeed * Math.sin(windRad);
+        double windZ = weather.windSpeed * Math.cos(windRad);
+        double rangeLimit = projectile.rangeLimit;
+
+        double[] s = out.state;
+        double[] n = out.next;
+        double[] t = out.stage;
+        double[] k1 = out.k1, k2 = out.k2, k3 = out.k3, k4 = out.k4,
+                 k5 = out.k5, k6 = out.k6, k7 = out.k7;
+
+        s[0] = 0.0;
+        s[1] = 0.0;
+        s[2] = 0.0;
+        s[3] = v0 * Math.cos(angleRad);
+        s[4] = v0 * sinAngle;
+        s[5] = 0.0;
+
+        out.record(s[0], s[1], s[2]);
+        derivative(s, k1, atmosphere, projectile, windX, windZ);
+        out.evaluations++;
+
+        double time = 0.0;
+        double h = INITIAL_STEP;
+
+        while (time < MAX_TIME) {
+            h = Math.min(h, MAX_TIME - time);
+
+            for (int i = 0; i < STATE_SIZE; i++) t[i] = s[i] + h * A21 * k1[i];
+            derivative(t, k2, atmosphere, projectile, windX, windZ);
+            for (int i = 0; i < STATE_SIZE; i++) t[i] = s[i] + h * (A31 * k1[i] + A32 * k2[i]);
+            derivative(t, k3, atmosphere, projectile, windX, windZ);
+            for (int i = 0; i < STATE_SIZE; i++) t[i] = s[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+            derivative(t, k4, atmosphere, projectile, windX, windZ);
+            for (int i = 0; i < STATE_SIZE; i++) {
+                t[i] = s[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+            }
+            derivative(t, k5, atmosphere, projectile, windX, windZ);
+            for (int i = 0; i < STATE_SIZE; i++) {
+                t[i] = s[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+            }
+            derivative(t, k6, atmosphere, projectile, windX, windZ);
+            for (int i = 0; i < STATE_SIZE; i++) {
+                n[i] = s[i] + h * (B1 * k1[i] + B3 * k3[i] + B4 * k4[i] + B5 * k5[i] + B6 * k6[i]);
+            }
+            derivative(n, k7, atmosphere, projectile, windX, windZ);
+            out.evaluations += 6;
+
+            // Нормированная оценка локальной ошибки
+            double errorNorm = 0.0;
+            for (int i = 0; i < STATE_SIZE; i++) {
+                double e = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]);
+                double scale = ABSOLUTE_TOLERANCE
+                    + RELATIVE_TOLERANCE * Math.max(Math.abs(s[i]), Math.abs(n[i]));
+                double ratio = e / scale;
+                errorNorm += ratio * ratio;
+            }
+            errorNorm = Math.sqrt(errorNorm / STATE_SIZE);
+
+            if (errorNorm > 1.0 && h > MIN_STEP) {
+                // Шаг отклонен, уменьшаем
+                h = Math.max(MIN_STEP, h * Math.max(0.2, SAFETY * Math.pow(errorNorm, -0.2)));
+                continue;
+            }
+
+            // Вершина траектории: вертикальная скорость сменила знак
+            if (s[4] > 0 && n[4] <= 0) {
+                double theta = s[4] / (s[4] - n[4]);
+                out.maxHeight = hermite(s[1], s[4], n[1], n[4], h, theta);
+            }
+
+            // Событие падения на уровень цели на нисходящей ветви
+            boolean levelCrossed = s[1] > heightDiff && n[1] <= heightDiff && n[4] < 0;
+            double levelTheta = levelCrossed ? locateCrossing(s[1], s[4], n[1], n[4], h, heightDiff) : 1.0;
+
+            // Встреча с рельефом раньше уровня цели
+            if (terrain != null) {
+                double theta = scanTerrain(terrain, s, n, h, levelTheta, out);
+                if (theta >= 0) {
+                    out.hit = true;
+                    out.terrainHit = true;
+                    out.impactX = hermite(s[0], s[3], n[0], n[3], h, theta);
+                    out.impactY = hermite(s[1], s[4], n[1], n[4], h, theta);
+                    out.impactZ = hermite(s[2], s[5], n[2], n[5], h, theta);
+                    double dx = out.impactX - distance;
+                    out.impactError = Math.sqrt(dx * dx + out.impactZ * out.impactZ);
+                    time += theta * h;
+                    out.descend(s[3] + (n[3] - s[3]) * theta, s[4] + (n[4] - s[4]) * theta,
+                        s[5] + (n[5] - s[5]) * theta);
+                    out.record(out.impactX, out.impactY, out.impactZ);
+                    break;
+                }
+            }
+
+            if (levelCrossed) {
+                out.hit = true;
+                out.impactX = hermite(s[0], s[3], n[0], n[3], h, levelTheta);
+                out.impactZ = hermite(s[2], s[5], n[2], n[5], h, levelTheta);
+                out.impactY = heightDiff;
+                double dx = out.impactX - distance;
+                out.impactError = Math.sqrt(dx * dx + out.impactZ * out.impactZ);
+                time += levelTheta * h;
+                out.descend(s[3] + (n[3] - s[3]) * levelTheta, s[4] + (n[4] - s[4]) * levelTheta,
+                    s[5] + (n[5] - s[5]) * levelTheta);
+                out.record(out.impactX, out.impactY, out.impactZ);
+                break;
+            }
+
+            // Шаг принят
+            time += h;
+            for (int i = 0; i < STATE_SIZE; i++) {
+                s[i] = n[i];
+                k1[i] = k7[i]; // FSAL: последняя стадия становится первой
+            }
+            out.record(s[0], s[1], s[2]);
+
+            if (Math.abs(s[0]) > rangeLimit || Math.abs(s[2]) > rangeLimit
+                    || (s[4] < 0 && s[1] < heightDiff)) {
+                // Вне зоны досягаемости либо снаряд уже ниже уровня цели на нисходящей ветви
+                break;
+            }
+
+            double factor = errorNorm == 0.0 ? 5.0 : SAFETY * Math.pow(errorNorm, -0.2);
+            h = Math.min(MAX_STEP, h * Math.min(5.0, Math.max(0.2, factor)));
+        }
+
+        out.time = time;
+    }
+
+    /**
+     * Правая часть уравнений движения: производные положения и скорости
+     */
+    private static void derivative(double[] state, double[] out, AtmosphereProfile atmosphere,
+                                   Projectile projectile, double windX, double windZ) {
+        double vx = state[3], vy = state[4], vz = state[5];
+        double vxRel = vx - windX;
+        double vzRel = vz - windZ;
+        double velocity = Math.sqrt(vxRel * vxRel + vy * vy + vzRel * vzRel);
+        double cd = projectile.dragCurve.cd(velocity * atmosphere.inverseSoundSpeed);
+        double k = atmosphere.density(state[1]) * cd * projectile.dragFactor * velocity;
+
+        out[0] = vx;
+        out[1] = vy;
+        out[2] = vz;
+        out[3] = -k * vxRel;
+        out[4] = -GRAVITY - k * vy;
+        out[5] = -k * vzRel;
+    }
+
+    /**
+     * Кубический эрмитов интерполянт по значениям и производным на концах шага
+     * @param theta доля шага от 0 до 1
+     */
+    private static double hermite(double p0, double d0, double p1, double d1, double h, double theta) {
+        double t2 = theta * theta;
+        double t3 = t2 * theta;
+        return (2 * t3 - 3 * t2 + 1) * p0
+            + (t3 - 2 * t2 + theta) * h * d0
+            + (-2 * t3 + 3 * t2) * p1
+            + (t3 - t2) * h * d1;
+    }
+
+    /**
+     * Ищет первую точку шага, в которой траектория опускается на рельеф,
+     * и обновляет наименьший запас над рельефом. Шаг просматривается с шагом
+     * профиля по дальности, найденный отрезок уточняется делением пополам
+     * по эрмитову интерполянту. Траектория выпукла вверх, поэтому ниже концов
+     * шага она не опускается: если оба конца выше максимума рельефа впереди
+     * на текущий наименьший запас, шаг ничего не меняет и не просматривается.
+     * @param limit доля шага, дальше которой искать не нужно
+     * @return доля шага или -1, если рельеф не задет
+     */
+    private static double scanTerrain(TerrainProfile terrain, double[] s, double[] n, double h, double limit,
+                                      Workspace out) {
+        double lowest = Math.min(s[1], limit < 1.0 ? hermite(s[1], s[4], n[1], n[4], h, limit) : n[1]);
+        double margin = lowest - terrain.maxBeyond(Math.min(s[0], n[0]));
+        if (margin > 0 && margin >= out.minClearance) {
+            return -1;
+        }
+
+        int samples = Math.max(1, (int) Math.ceil(Math.abs(n[0] - s[0]) * limit / TerrainProfile.STEP));
+        double previous = 0.0;
+        for (int i = 1; i <= samples; i++) {
+            double theta = limit * i / samples;
+            double x = hermite(s[0], s[3], n[0], n[3], h, theta);
+            if (x <= TerrainProfile.MUZZLE_CLEARANCE) {
+                previous = theta;
+                continue;
+            }
+            double clearance = hermite(s[1], s[4], n[1], n[4], h, theta) - terrain.heightAt(x);
+            if (terrain.inClearanceZone(x)) {
+                out.minClearance = Math.min(out.minClearance, clearance);
+            }
+            if (clearance > 0) {
+                previous = theta;
+                continue;
+            }
+            // Над рельефом в начале отрезка и на рельефе или под ним в конце
+            double a = previous, b = theta;
+            for (int j = 0; j < TERRAIN_ITERATIONS && b - a > 1e-6; j++) {
+                double c = 0.5 * (a + b);
+                if (terrainClearance(terrain, s, n, h, c) > 0) {
+                    a = c;
+                } else {
+                    b = c;
+                }
+            }
+            return b;
+        }
+        return -1;
+    }
+
+    /**
+     * Превышение траектории над рельефом в доле шага theta;
+     * у миномета рельеф не проверяется
+     */
+    private static double terrainClearance(TerrainProfile terrain, double[] s, double[] n, double h, double theta) {
+        double x = hermite(s[0], s[3], n[0], n[3], h, theta);
+        if (x <= TerrainProfile.MUZZLE_CLEARANCE) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return hermite(s[1], s[4], n[1], n[4], h, theta) - terrain.heightAt(x);
+    }
+
+    /**
+     * Находит долю шага, на которой интерполированная высота равна уровню цели
+     * (метод Иллинойса, корень гарантированно внутри отрезка)
+     */
+    private static double locateCrossing(double y0, double vy0, double y1, double vy1,
+                                         double h, double level) {
+        double a = 0.0, fa = y0 - level;
+        double b = 1.0, fb = y1 - level;
+        int side = 0;
+        double c = b;
+        for (int i = 0; i < EVENT_ITERATIONS; i++) {
+            c = (a * fb - b * fa) / (fb - fa);
+            double fc = hermite(y0, vy0, y1, vy1, h, c) - level;
+            if (Math.abs(fc) < EVENT_TOLERANCE) {
+                break;
+            }
+            if (fc * fb > 0) {
+                b = c;
+                fb = fc;
+                if (side == -1) fa *= 0.5;
+                side = -1;
+            } else {
+                a = c;
+                fa = fc;
+                if (side == 1) fb *= 0.5;
+                side = 1;
+            }
+        }
+        return c;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.mortarcalculator;
+
+import android.graphics.Path;
+
+/**
+ * Проекция траектории миномета на карту: след снаряда на земле и эллипс
+ * рассеивания вокруг точки падения.
+ *
+ * Пути строятся один раз на результат расчета, в пикселях карты, а не
+ * экрана: при прокрутке и масштабировании они не перестраиваются, холст
+ * лишь получает матрицу вида (Canvas.concat), и HWUI рисует уже готовую
+ * геометрию. Строится в потоке пула вместе с текстом результатов, после
+ * публикации только читается UI-потоком.
+ *
+ * Траектория задана в плоскости стрельбы: x - дальность, z - боковое
+ * отклонение вправо от линии стрельбы. На карту она кладется по
+ * направлению миномет - цель, поэтому след заканчивается у цели.
+ */
+final class TrajectoryOverlay {
+    private static final int ELLIPSE_SEGMENTS = 48; // отрезков в контуре эллипса
+
+    final int index; // номер миномета, задает цвет
+    final Path track = new Path();
+    final Path ellipse = new Path();
+
+    private TrajectoryOverlay(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @param azimuth направление стрельбы в градусах от севера по часовой стрелке
+     * @param projection проекция карты, в пикселях которой строятся пути
+     * @return null, если траектория пуста
+     */
+    static TrajectoryOverlay build(int index, double mortarLat, double mortarLon, double azimuth,
+                                   BallisticCalculator.BallisticResult result, MapProjection projection) {
+        int count = result.trajectoryX.length;
+        if (count < 2) {
+            return null;
+        }
+        TrajectoryOverlay overlay = new TrajectoryOverlay(index);
+        double sin = Math.sin(Math.toRadians(azimuth));
+        double cos = Math.cos(Math.toRadians(azimuth));
+
+        // След на земле: точки траектории без высоты
+        int points = Math.max(count, ELLIPSE_SEGMENTS);
+        double[] meters = new double[2 * points];
+        double[] latLon = new double[2 * points];
+        float[] pixels = new float[2 * points];
+        for (int i = 0; i < count; i++) {
+            toEastNorth(result.trajectoryX[i], result.trajectoryZ[i], sin, cos, meters, 2 * i);
+        }
+        MapProjection.fromLocal(mortarLat, mortarLon, meters, latLon, count);
+        projection.toPixels(latLon, pixels, count);
+        overlay.track.incReserve(count);
+        overlay.track.moveTo(pixels[0], pixels[1]);
+        for (int i = 1; i < count; i++) {
+            overlay.track.lineTo(pixels[2 * i], pixels[2 * i + 1]);
+        }
+
+        // Эллипс: большая полуось вдоль линии стрельбы, малая поперек
+        double impactX = result.trajectoryX[count - 1];
+        double impactZ = result.trajectoryZ[count - 1];
+        for (int i = 0; i < ELLIPSE_SEGMENTS; i++) {
+            double angle = 2 * Math.PI * i / ELLIPSE_SEGMENTS;
+            toEastNorth(impactX + result.impactEllipseMajor * Math.cos(angle),
+                impactZ + result.impactEllipseMinor * Math.sin(angle), sin, cos, meters, 2 * i);
+        }
+        MapProjection.fromLocal(mortarLat, mortarLon, meters, latLon, ELLIPSE_SEGMENTS);
+        projection.toPixels(latLon, pixels, ELLIPSE_SEGMENTS);
+        overlay.ellipse.incReserve(ELLIPSE_SEGMENTS);
+        overlay.ellipse.moveTo(pixels[0], pixels[1]);
+        for (int i = 1; i < ELLIPSE_SEGMENTS; i++) {
+            overlay.ellipse.lineTo(pixels[2 * i], pixels[2 * i + 1]);
+        }
+        overlay.ellipse.close();
+        return overlay;
+    }
+
+    /**
+     * Дальность и боковое отклонение в смещения на восток и на север
+     */
+    private static void toEastNorth(double range, double lateral, double sin, double cos,
+                                    double[] meters, int offset) {
+        meters[offset] = range * sin + lateral * cos;
+        meters[offset + 1] = range * cos - lateral * sin;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.mortarcalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Метод Брента на промахе с известным корнем: дальность в пустоте
+ * для заданного угла берется из точного решения
+ */
+public class AngleSolverTest {
+    private static final double GRAVITY = 9.81;
+    private static final double TOLERANCE = 0.01; // допустимый промах, м
+    private static final int MAX_ITERATIONS = 50;
+    private static final MortarType MORTAR = new MortarType("Test", 82, 211.0, 50.0, 4000.0, 1.0, 89.0, 1220.0);
+    private static final AmmoType VACUUM = new AmmoType("Vacuum", 3.1, 0.0, DragCurve.constant(0.0), 0.4, 20.0, 100);
+    private static final BallisticCalculator.WeatherConditions CALM =
+        new BallisticCalculator.WeatherConditions(15.0, 1013.25, 50.0, 0.0, 0.0);
+
+    @Test
+    public void findsLowBranchRoot() {
+        assertRoot(30.0, 5.0, 38.0);
+    }
+
+    @Test
+    public void findsHighBranchRoot() {
+        assertRoot(70.0, 50.0, 89.0);
+    }
+
+    @Test
+    public void rejectsBracketWithoutSignChange() {
+        AngleSolver.Solution solution = new AngleSolver.Solution();
+        // Обе границы скобки дают перелет
+        boolean bracketed = AngleSolver.solve(projectile(), CALM, range(30.0) * 0.5, 0.0, 20.0, 35.0,
+            TOLERANCE, MAX_ITERATIONS, solution);
+        assertFalse(bracketed);
+        assertFalse(solution.converged);
+    }
+
+    private static void assertRoot(double root, double lower, double upper) {
+        AngleSolver.Solution solution = new AngleSolver.Solution();
+        boolean bracketed = AngleSolver.solve(projectile(), CALM, range(root), 0.0, lower, upper,
+            TOLERANCE, MAX_ITERATIONS, solution);
+        assertTrue(bracketed);
+        assertTrue(solution.converged);
+        assertTrue(Math.abs(solution.miss) <= TOLERANCE);
+        assertEquals(root, solution.angle, 1e-3);
+        assertTrue("итераций: " + solution.iterations, solution.iterations < MAX_ITERATIONS);
+    }
+
+    private static TrajectoryIntegrator.Projectile projectile() {
+        return new TrajectoryIntegrator.Projectile(MORTAR, VACUUM);
+    }
+
+    /**
+     * Дальность в пустоте на уровне миномета, с тем же снижением начальной
+     * скорости на больших углах, что и в интеграторе
+     */
+    private static double range(double angle) {
+        double speed = MORTAR.getMuzzleVelocity() * (1.0 - 0.15 * Math.sin(Math.toRadians(angle)));
+        return speed * speed * Math.sin(Math.toRadians(2.0 * angle)) / GRAVITY;
+    }
+}
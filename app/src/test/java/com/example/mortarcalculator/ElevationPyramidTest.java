@@ -0,0 +1,106 @@
+package com.example.mortarcalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Запас над рельефом по пирамиде против перебора: каждая пересеченная
+ * ячейка сетки проходится мелким шагом по билинейной поверхности
+ */
+public class ElevationPyramidTest {
+    private static final int SIZE = 64;
+    private static final int SAMPLES_PER_CELL = 200; // точек перебора на длину ячейки
+    private static final double TOLERANCE = 0.05; // погрешность перебора между точками, м
+
+    private final ElevationGrid grid = grid(new Random(7));
+    private final ElevationPyramid pyramid = new ElevationPyramid(grid);
+
+    @Test
+    public void minClearanceMatchesBruteForce() {
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            double x0 = random.nextDouble() * (SIZE - 1);
+            double y0 = random.nextDouble() * (SIZE - 1);
+            double x1 = random.nextDouble() * (SIZE - 1);
+            double y1 = random.nextDouble() * (SIZE - 1);
+            double z0 = 40.0 + random.nextDouble() * 30.0;
+            double z1 = 40.0 + random.nextDouble() * 30.0;
+            assertClearance(x0, y0, z0, x1, y1, z1);
+        }
+    }
+
+    @Test
+    public void minClearanceAlongGridLines() {
+        // Отрезки по линиям сетки и через узлы: границы ячеек и вырожденные случаи
+        assertClearance(0, 10, 60, SIZE - 1, 10, 55);
+        assertClearance(20, 0, 50, 20, SIZE - 1, 65);
+        assertClearance(0, 0, 60, SIZE - 1, SIZE - 1, 60);
+        assertClearance(12.5, 30.25, 58, 12.5, 30.25, 58);
+    }
+
+    @Test
+    public void lineOfSightAgreesWithBruteForce() {
+        Random random = new Random(13);
+        int blocked = 0;
+        int clear = 0;
+        for (int i = 0; i < 500; i++) {
+            double x0 = random.nextDouble() * (SIZE - 1);
+            double y0 = random.nextDouble() * (SIZE - 1);
+            double x1 = random.nextDouble() * (SIZE - 1);
+            double y1 = random.nextDouble() * (SIZE - 1);
+            double z0 = 40.0 + random.nextDouble() * 30.0;
+            double z1 = 40.0 + random.nextDouble() * 30.0;
+            double expected = bruteForce(x0, y0, z0, x1, y1, z1);
+            boolean visible = pyramid.lineOfSight(x0, y0, z0, x1, y1, z1);
+            if (expected < 0) {
+                assertFalse(visible);
+                blocked++;
+            } else if (expected > TOLERANCE) {
+                assertTrue(visible);
+                clear++;
+            }
+        }
+        // Оба исхода должны встречаться, иначе проверка ничего не проверяет
+        assertTrue(blocked > 0 && clear > 0);
+    }
+
+    private void assertClearance(double x0, double y0, double z0, double x1, double y1, double z1) {
+        double expected = bruteForce(x0, y0, z0, x1, y1, z1);
+        double actual = pyramid.minClearance(x0, y0, z0, x1, y1, z1);
+        if (expected >= 0) {
+            // Перебор находит точку не ниже настоящего минимума
+            assertTrue("запас " + actual + " больше перебора " + expected, actual <= expected + 1e-9);
+            assertEquals(expected, actual, TOLERANCE);
+        } else {
+            assertTrue(actual < 0);
+        }
+    }
+
+    private double bruteForce(double x0, double y0, double z0, double x1, double y1, double z1) {
+        int steps = Math.max(1, (int) Math.ceil(Math.hypot(x1 - x0, y1 - y0) * SAMPLES_PER_CELL));
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i <= steps; i++) {
+            double t = (double) i / steps;
+            double z = z0 + (z1 - z0) * t;
+            best = Math.min(best, z - grid.bilinear(x0 + (x1 - x0) * t, y0 + (y1 - y0) * t));
+        }
+        return best;
+    }
+
+    /**
+     * Холмы с шумом: высоты от 10 до 56 м с шагом отсчета 0.1 м
+     */
+    private static ElevationGrid grid(Random random) {
+        short[] samples = new short[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                samples[y * SIZE + x] = (short) (300 + 200 * Math.sin(x / 7.0) * Math.cos(y / 5.0) + random.nextInt(60));
+            }
+        }
+        return new ElevationGrid(SIZE, SIZE, 0.1, samples);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.mortarcalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+/**
+ * Запись и чтение файла таблицы стрельбы, отказ от устаревших заголовков
+ */
+public class FiringTableFileTest {
+    private static final int PARAMS_HASH = 0x1234abcd;
+    private static final int RANGE_COUNT = 5;
+    private static final int HEIGHT_COUNT = 3;
+    private static final int VALUES_PER_CELL = 4;
+
+    @Test
+    public void writtenTableReadsBack() throws IOException {
+        File file = tempFile();
+        try {
+            FiringTableFile.write(table(), file);
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+
+            ByteBuffer mapped = FiringTableFile.mapFile(file);
+            assertNotNull(mapped);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            assertTrue(FiringTableFile.isValid(mapped, PARAMS_HASH, VALUES_PER_CELL));
+            assertEquals(100.0, mapped.getDouble(FiringTableFile.OFFSET_RANGE_MIN), 0.0);
+            assertEquals(25.0, mapped.getDouble(FiringTableFile.OFFSET_RANGE_STEP), 0.0);
+            assertEquals(-50.0, mapped.getDouble(FiringTableFile.OFFSET_HEIGHT_MIN), 0.0);
+            assertEquals(50.0, mapped.getDouble(FiringTableFile.OFFSET_HEIGHT_STEP), 0.0);
+            assertEquals(RANGE_COUNT, mapped.getInt(FiringTableFile.OFFSET_RANGE_COUNT));
+            assertEquals(HEIGHT_COUNT, mapped.getInt(FiringTableFile.OFFSET_HEIGHT_COUNT));
+            for (int i = 0; i < RANGE_COUNT * HEIGHT_COUNT * VALUES_PER_CELL; i++) {
+                assertEquals(value(i), mapped.getFloat(FiringTableFile.HEADER_SIZE + 4 * i), 0.0);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void missingFileIsNotMapped() throws IOException {
+        File file = tempFile();
+        file.delete();
+        assertNull(FiringTableFile.mapFile(file));
+    }
+
+    @Test
+    public void rejectsOtherParameters() throws IOException {
+        ByteBuffer mapped = writeAndMap(table());
+        assertFalse(FiringTableFile.isValid(mapped, PARAMS_HASH + 1, VALUES_PER_CELL));
+    }
+
+    @Test
+    public void rejectsOtherModelVersion() throws IOException {
+        ByteBuffer buffer = table();
+        buffer.putInt(FiringTableFile.OFFSET_MODEL_VERSION, BallisticCalculator.MODEL_VERSION + 1);
+        assertFalse(FiringTableFile.isValid(writeAndMap(buffer), PARAMS_HASH, VALUES_PER_CELL));
+    }
+
+    @Test
+    public void rejectsOtherFormatVersion() throws IOException {
+        ByteBuffer buffer = table();
+        buffer.putInt(4, FiringTableFile.FORMAT_VERSION + 1);
+        assertFalse(FiringTableFile.isValid(writeAndMap(buffer), PARAMS_HASH, VALUES_PER_CELL));
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        File file = tempFile();
+        try {
+            FiringTableFile.write(table(), file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 4);
+            }
+            assertFalse(FiringTableFile.isValid(FiringTableFile.mapFile(file), PARAMS_HASH, VALUES_PER_CELL));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void paramsHashFollowsAmmo() {
+        MortarType mortar = MortarType.PREDEFINED_MORTARS[0];
+        AmmoType ammo = AmmoType.PREDEFINED_AMMO_82MM[0];
+        AmmoType heavier = new AmmoType(ammo.getName(), ammo.getWeight() + 0.1, ammo.getDragCoefficient(),
+            ammo.getDragCurve(), ammo.getExplosiveWeight(), ammo.getFragmentationRadius(), ammo.getFragmentCount());
+        assertEquals(FiringTableFile.paramsHash(mortar, ammo), FiringTableFile.paramsHash(mortar, ammo));
+        assertTrue(FiringTableFile.paramsHash(mortar, ammo) != FiringTableFile.paramsHash(mortar, heavier));
+    }
+
+    private static ByteBuffer table() {
+        ByteBuffer buffer = FiringTableFile.allocate(PARAMS_HASH, 100.0, 25.0, RANGE_COUNT,
+            -50.0, 50.0, HEIGHT_COUNT, VALUES_PER_CELL);
+        for (int i = 0; i < RANGE_COUNT * HEIGHT_COUNT * VALUES_PER_CELL; i++) {
+            buffer.putFloat(FiringTableFile.HEADER_SIZE + 4 * i, value(i));
+        }
+        return buffer;
+    }
+
+    private static float value(int i) {
+        return 45.0f + 0.25f * i;
+    }
+
+    private static ByteBuffer writeAndMap(ByteBuffer buffer) throws IOException {
+        File file = tempFile();
+        try {
+            FiringTableFile.write(buffer, file);
+            ByteBuffer mapped = FiringTableFile.mapFile(file);
+            assertNotNull(mapped);
+            return mapped.order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        return File.createTempFile("table", FiringTableFile.EXTENSION);
+    }
+}
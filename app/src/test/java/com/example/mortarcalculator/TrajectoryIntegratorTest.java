@@ -0,0 +1,76 @@
+package com.example.mortarcalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Метод Дормана–Принса без сопротивления воздуха против точного решения
+ * для полета в пустоте
+ */
+public class TrajectoryIntegratorTest {
+    private static final double GRAVITY = 9.81;
+    private static final MortarType MORTAR = new MortarType("Test", 82, 211.0, 50.0, 4000.0, 1.0, 89.0, 1220.0);
+    private static final AmmoType VACUUM = new AmmoType("Vacuum", 3.1, 0.0, DragCurve.constant(0.0), 0.4, 20.0, 100);
+    private static final BallisticCalculator.WeatherConditions CALM =
+        new BallisticCalculator.WeatherConditions(15.0, 1013.25, 50.0, 0.0, 0.0);
+
+    @Test
+    public void vacuumTrajectoryMatchesClosedForm() {
+        for (double angle : new double[]{10.0, 30.0, 45.0, 60.0, 80.0}) {
+            TrajectoryIntegrator.Workspace out = integrate(angle, 0.0);
+            double vx = speed(angle) * Math.cos(Math.toRadians(angle));
+            double vy = speed(angle) * Math.sin(Math.toRadians(angle));
+            double time = 2.0 * vy / GRAVITY;
+
+            assertTrue(out.hit);
+            assertEquals("дальность при " + angle, vx * time, out.impactX, 0.01);
+            assertEquals("боковое отклонение при " + angle, 0.0, out.impactZ, 1e-9);
+            assertEquals("время полета при " + angle, time, out.time, 1e-3);
+            assertEquals("высота вершины при " + angle, vy * vy / (2.0 * GRAVITY), out.maxHeight, 0.01);
+            assertEquals("угол падения при " + angle, vy / vx, out.descentTangent, 1e-4);
+        }
+    }
+
+    @Test
+    public void vacuumImpactOnElevatedTargetIsOnDescendingBranch() {
+        double angle = 60.0;
+        double heightDiff = 150.0;
+        TrajectoryIntegrator.Workspace out = integrate(angle, heightDiff);
+        double vx = speed(angle) * Math.cos(Math.toRadians(angle));
+        double vy = speed(angle) * Math.sin(Math.toRadians(angle));
+        // Больший корень y(t) = heightDiff: пересечение уровня цели на нисходящей ветви
+        double time = (vy + Math.sqrt(vy * vy - 2.0 * GRAVITY * heightDiff)) / GRAVITY;
+
+        assertTrue(out.hit);
+        assertEquals(vx * time, out.impactX, 0.01);
+        assertEquals(heightDiff, out.impactY, 1e-9);
+        assertEquals(time, out.time, 1e-3);
+    }
+
+    @Test
+    public void impactPointIsLastTrajectoryPoint() {
+        TrajectoryIntegrator.Workspace out = integrate(85.0, 0.0);
+        int last = out.count - 1;
+        assertTrue(out.count >= 2);
+        assertEquals(out.impactX, out.x[last], 1e-9);
+        assertEquals(out.impactY, out.y[last], 1e-9);
+        assertEquals(out.impactZ, out.z[last], 1e-9);
+    }
+
+    private static TrajectoryIntegrator.Workspace integrate(double angle, double heightDiff) {
+        TrajectoryIntegrator.Projectile projectile = new TrajectoryIntegrator.Projectile(MORTAR, VACUUM);
+        TrajectoryIntegrator.Workspace out = TrajectoryIntegrator.workspace();
+        TrajectoryIntegrator.integrate(BallisticCalculator.IntegratorMode.DORMAND_PRINCE, projectile, CALM,
+            angle, 1000.0, heightDiff, out);
+        return out;
+    }
+
+    /**
+     * Начальная скорость с тем же снижением на больших углах, что и в интеграторе
+     */
+    private static double speed(double angle) {
+        return MORTAR.getMuzzleVelocity() * (1.0 - 0.15 * Math.sin(Math.toRadians(angle)));
+    }
+}